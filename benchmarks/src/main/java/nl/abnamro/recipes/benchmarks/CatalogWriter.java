@@ -0,0 +1,25 @@
+package nl.abnamro.recipes.benchmarks;
+
+import nl.abnamro.recipes.utils.CatalogGenerator;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes a synthetic catalog to a file as newline delimited JSON, ready to be
+ * posted to the batch import endpoint.
+ */
+public class CatalogWriter {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: CatalogWriter <count> <seed> <file>");
+            System.exit(1);
+        }
+
+        try (var out = new BufferedOutputStream(new FileOutputStream(args[2]))) {
+            new CatalogGenerator(Long.parseLong(args[1])).writeNdjson(Integer.parseInt(args[0]), out);
+        }
+    }
+}
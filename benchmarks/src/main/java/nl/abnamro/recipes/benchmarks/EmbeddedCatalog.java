@@ -0,0 +1,56 @@
+package nl.abnamro.recipes.benchmarks;
+
+import nl.abnamro.recipes.RecipesApplication;
+import nl.abnamro.recipes.service.RecipeBatchService;
+import nl.abnamro.recipes.service.RecipeService;
+import nl.abnamro.recipes.utils.CatalogGenerator;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Starts the application without a web server against an H2 database in
+ * MySQL mode, in memory unless another url is given, seeded with the first
+ * recipes of the catalog generated from {@link #SEED}. Every benchmark trial
+ * gets its own database. Extra arguments override the properties of the
+ * service for the trial.
+ */
+final class EmbeddedCatalog {
+
+    static final long SEED = 42;
+
+    static final CatalogGenerator GENERATOR = new CatalogGenerator(SEED);
+
+    private EmbeddedCatalog() {
+    }
+
+    static ConfigurableApplicationContext start(int catalogSize) {
+        return start("jdbc:h2:mem:bench" + catalogSize, catalogSize);
+    }
+
+    static ConfigurableApplicationContext start(String url, int catalogSize, String... arguments) {
+        var args = new ArrayList<>(List.of(
+                // Arguments take precedence over the application.properties of the service
+                "--spring.datasource.url=" + url + ";MODE=MySQL;DB_CLOSE_DELAY=-1;IGNORECASE=TRUE",
+                "--spring.datasource.driver-class-name=org.h2.Driver",
+                "--spring.datasource.username=sa",
+                "--spring.datasource.password=",
+                "--spring.sql.init.mode=always",
+                "--spring.sql.init.schema-locations=classpath:database/database.sql",
+                "--spring.jpa.show-sql=false",
+                "--logging.level.root=WARN"));
+        args.addAll(List.of(arguments));
+
+        var context = new SpringApplicationBuilder(RecipesApplication.class)
+                .web(WebApplicationType.NONE)
+                .run(args.toArray(String[]::new));
+
+        context.getBean(RecipeBatchService.class).importAll(GENERATOR.recipes(catalogSize));
+        context.getBean(RecipeService.class).rebuildIndex();
+
+        return context;
+    }
+}
@@ -0,0 +1,92 @@
+package nl.abnamro.recipes.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import nl.abnamro.recipes.dto.RecipeDto;
+import nl.abnamro.recipes.encoding.RecipeProtobuf;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Measures the cost of encoding a find page of the benchmark catalog in each
+ * response format, with and without gzip. The payload size of every
+ * combination is reported next to the timings, as encode:bytes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class EncodingBenchmark {
+
+    @Param({"100", "1000"})
+    private int recipeCount;
+
+    @Param({"json", "smile", "cbor", "protobuf"})
+    private String format;
+
+    @Param({"false", "true"})
+    private boolean gzip;
+
+    private List<RecipeDto> recipes;
+
+    private ObjectWriter writer;
+
+    private ByteArrayOutputStream buffer;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Payload {
+
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        recipes = EmbeddedCatalog.GENERATOR.list(recipeCount);
+        for (int i = 0; i < recipes.size(); i++) {
+            recipes.get(i).setRecipeId(i + 1);
+        }
+
+        switch (format) {
+            case "json":
+                writer = new ObjectMapper().writer();
+                break;
+            case "smile":
+                writer = new SmileMapper().writer();
+                break;
+            case "cbor":
+                writer = new CBORMapper().writer();
+                break;
+            default:
+                writer = null;
+        }
+
+        buffer = new ByteArrayOutputStream(1 << 20);
+    }
+
+    @Benchmark
+    public int encode(Payload payload) throws IOException {
+        buffer.reset();
+
+        OutputStream out = gzip ? new GZIPOutputStream(buffer, 8192) : buffer;
+        if (writer != null) {
+            writer.writeValue(out, recipes);
+        } else {
+            RecipeProtobuf.writeList(recipes, out);
+        }
+        out.close();
+
+        payload.bytes = buffer.size();
+        return buffer.size();
+    }
+}
@@ -0,0 +1,69 @@
+package nl.abnamro.recipes.benchmarks;
+
+import nl.abnamro.recipes.dto.RecipeDto;
+import nl.abnamro.recipes.dto.RecipeFilter;
+import nl.abnamro.recipes.repository.RecipeRepository;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures CustomRecipeRepositoryImpl.find for every combination of the five
+ * filters. The predicates parameter is a bit mask: 1 text, 2 include,
+ * 4 exclude, 8 servings and 16 vegetarian.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class FindBenchmark {
+
+    private static final int LIMIT = 100;
+
+    @Param({"1000", "100000", "1000000"})
+    private int catalogSize;
+
+    @Param({"0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13", "14", "15",
+            "16", "17", "18", "19", "20", "21", "22", "23", "24", "25", "26", "27", "28", "29", "30", "31"})
+    private int predicates;
+
+    private ConfigurableApplicationContext context;
+
+    private RecipeRepository repository;
+
+    private TransactionTemplate readOnly;
+
+    private RecipeFilter filter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = EmbeddedCatalog.start(catalogSize);
+        repository = context.getBean(RecipeRepository.class);
+
+        readOnly = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+        readOnly.setReadOnly(true);
+
+        filter = RecipeFilter.of(
+                (predicates & 1) != 0 ? "curry" : null,
+                (predicates & 2) != 0 ? EmbeddedCatalog.GENERATOR.ingredient(0) : null,
+                (predicates & 4) != 0 ? EmbeddedCatalog.GENERATOR.ingredient(1) : null,
+                (predicates & 8) != 0 ? 2 : null,
+                (predicates & 16) != 0 ? Boolean.TRUE : null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<RecipeDto> find() {
+        return readOnly.execute(status -> repository.find(filter, null, LIMIT));
+    }
+}
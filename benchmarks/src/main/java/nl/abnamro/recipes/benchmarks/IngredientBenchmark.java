@@ -0,0 +1,81 @@
+package nl.abnamro.recipes.benchmarks;
+
+import nl.abnamro.recipes.domain.Ingredient;
+import nl.abnamro.recipes.service.IngredientService;
+import org.h2.tools.Server;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures IngredientService.getOrCreate with concurrent writers, to be run
+ * with different thread counts (-t). Every call asks for a known ingredient
+ * and a new one: with distinct titles every writer creates its own, with
+ * shared titles all writers ask for the same new ingredients in the same
+ * order and only one of them inserts each. The database is served over TCP
+ * on the loopback interface, so writers spend most of their time waiting for
+ * round trips and can overlap them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class IngredientBenchmark {
+
+    private static final int CATALOG_SIZE = 1000;
+
+    @Param({"distinct", "shared"})
+    private String titles;
+
+    private final AtomicInteger writers = new AtomicInteger();
+
+    private Server server;
+
+    private ConfigurableApplicationContext context;
+
+    private IngredientService ingredientService;
+
+    @State(Scope.Thread)
+    public static class Writer {
+
+        private int id;
+
+        private int round;
+
+        @Setup(Level.Trial)
+        public void setUp(IngredientBenchmark benchmark) {
+            id = benchmark.writers.incrementAndGet();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        server = Server.createTcpServer("-tcpPort", "0", "-ifNotExists").start();
+
+        var url = "jdbc:h2:tcp://localhost:" + server.getPort() + "/mem:ingredients";
+        context = EmbeddedCatalog.start(url, CATALOG_SIZE, "--spring.datasource.hikari.maximum-pool-size=64");
+        ingredientService = context.getBean(IngredientService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+        server.stop();
+    }
+
+    @Benchmark
+    public List<Ingredient> getOrCreate(Writer writer) {
+        var round = writer.round++;
+        var title = titles.equals("shared")
+                ? "Shared spice " + round
+                : "Spice " + round + " of writer " + writer.id;
+
+        return ingredientService.getOrCreate(List.of(EmbeddedCatalog.GENERATOR.ingredient(round % 100), title));
+    }
+}
@@ -0,0 +1,135 @@
+package nl.abnamro.recipes.benchmarks;
+
+import nl.abnamro.recipes.dto.BatchResultDto;
+import nl.abnamro.recipes.dto.RecipeDto;
+import nl.abnamro.recipes.metrics.RequestProfile;
+import nl.abnamro.recipes.service.RecipeBatchService;
+import nl.abnamro.recipes.service.RecipeService;
+import nl.abnamro.recipes.utils.CatalogGenerator;
+import org.h2.tools.Server;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Measures the insert throughput for different id block sizes and JDBC batch
+ * sizes: saving single recipes through Hibernate, and importing chunks of
+ * recipes through the batch service. A block size of 1 reserves every id with
+ * its own round trip, and a batch size of 1 executes every insert on its own,
+ * which is what identity ids forced on Hibernate. The database is served over
+ * TCP on the loopback interface, so every statement pays a round trip.
+ * The H2 client still sends the rows of a batch one by one, where MySQL with
+ * rewriteBatchedStatements sends one statement, so the statements prepared
+ * per recipe are reported next to the throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class InsertBenchmark {
+
+    private static final int CATALOG_SIZE = 10000;
+
+    private static final int IMPORT_SIZE = 100;
+
+    @Param({"1", "100"})
+    private int blockSize;
+
+    @Param({"1", "100"})
+    private int batchSize;
+
+    private Server server;
+
+    private ConfigurableApplicationContext context;
+
+    private RecipeService recipeService;
+
+    private RecipeBatchService recipeBatchService;
+
+    private Iterator<RecipeDto> recipes;
+
+    private int next;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Statements {
+
+        private long statements;
+
+        private long recipes;
+
+        public double perRecipe;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            statements = 0;
+            recipes = 0;
+            perRecipe = 0;
+        }
+
+        <T> T count(int recipeCount, Supplier<T> insert) {
+            var profile = RequestProfile.current();
+            profile.start();
+            try {
+                return insert.get();
+            } finally {
+                profile.stop();
+                statements += profile.getStatementCount();
+                recipes += recipeCount;
+                perRecipe = (double) statements / recipes;
+            }
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        server = Server.createTcpServer("-tcpPort", "0", "-ifNotExists").start();
+
+        var url = "jdbc:h2:tcp://localhost:" + server.getPort() + "/mem:insert";
+        context = EmbeddedCatalog.start(url, CATALOG_SIZE,
+                "--recipes.ids.block-size=" + blockSize,
+                "--spring.jpa.properties.hibernate.jdbc.batch_size=" + batchSize);
+        recipeService = context.getBean(RecipeService.class);
+        recipeBatchService = context.getBean(RecipeBatchService.class);
+
+        // Another seed, so the recipes mostly reuse known ingredients under new titles
+        recipes = new CatalogGenerator(EmbeddedCatalog.SEED + 1).recipes(Integer.MAX_VALUE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+        server.stop();
+    }
+
+    @Benchmark
+    public RecipeDto save(Statements statements) {
+        var recipe = nextRecipe();
+        return statements.count(1, () -> recipeService.save(recipe));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(IMPORT_SIZE)
+    public List<BatchResultDto> importChunk(Statements statements) {
+        var chunk = new ArrayList<RecipeDto>(IMPORT_SIZE);
+        for (int i = 0; i < IMPORT_SIZE; i++) {
+            chunk.add(nextRecipe());
+        }
+
+        return statements.count(IMPORT_SIZE, () -> recipeBatchService.importAll(chunk.iterator()));
+    }
+
+    private RecipeDto nextRecipe() {
+        var recipe = recipes.next();
+        recipe.setTitle("Inserted " + next++ + " " + recipe.getTitle());
+        return recipe;
+    }
+}
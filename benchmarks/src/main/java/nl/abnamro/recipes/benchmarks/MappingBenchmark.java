@@ -0,0 +1,56 @@
+package nl.abnamro.recipes.benchmarks;
+
+import nl.abnamro.recipes.domain.Ingredient;
+import nl.abnamro.recipes.domain.Recipe;
+import nl.abnamro.recipes.dto.RecipeDto;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures RecipeDto.toDTO(List) over detached entities shaped like the
+ * benchmark catalog, with the ingredients shared between recipes as they are
+ * when they come from the ingredient dictionary.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class MappingBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    private int recipeCount;
+
+    private List<Recipe> recipes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        var ingredients = new HashMap<String, Ingredient>();
+        recipes = new ArrayList<>(recipeCount);
+
+        int id = 1;
+        for (var recipeDto : EmbeddedCatalog.GENERATOR.list(recipeCount)) {
+            var recipe = RecipeDto.toEntity(recipeDto);
+            recipe.setRecipeId(id++);
+
+            var recipeIngredients = new ArrayList<Ingredient>();
+            for (var title : recipeDto.getIngredients()) {
+                recipeIngredients.add(ingredients.computeIfAbsent(title,
+                        key -> new Ingredient(ingredients.size() + 1, key)));
+            }
+            recipe.setIngredients(recipeIngredients);
+
+            recipes.add(recipe);
+        }
+    }
+
+    @Benchmark
+    public List<RecipeDto> toDTO() {
+        return RecipeDto.toDTO(recipes);
+    }
+}
@@ -0,0 +1,67 @@
+package nl.abnamro.recipes.benchmarks;
+
+import nl.abnamro.recipes.dto.RecipeDto;
+import nl.abnamro.recipes.service.RecipeService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures RecipeService.save, which resolves the ingredients and writes the
+ * recipe through saveRegister, on top of catalogs of different sizes. Every
+ * invocation saves a recipe with a new title; half of them introduce a new
+ * ingredient.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class SaveBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    private int catalogSize;
+
+    private ConfigurableApplicationContext context;
+
+    private RecipeService recipeService;
+
+    private SplittableRandom random;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = EmbeddedCatalog.start(catalogSize);
+        recipeService = context.getBean(RecipeService.class);
+        random = new SplittableRandom(EmbeddedCatalog.SEED);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public RecipeDto save() {
+        var n = next++;
+        var generator = EmbeddedCatalog.GENERATOR;
+        var known = generator.ingredient(random.nextInt(generator.ingredientCount()));
+        var other = n % 2 == 0
+                ? generator.ingredient(random.nextInt(generator.ingredientCount()))
+                : "Benchmark ingredient " + n;
+        var ingredients = List.of(known, other);
+
+        return recipeService.save(RecipeDto.builder()
+                .title("Benchmark recipe " + n)
+                .instructions("Cook everything for " + random.nextInt(5, 120) + " minutes")
+                .serves(random.nextInt(1, 9))
+                .vegetarian(random.nextBoolean())
+                .ingredients(ingredients)
+                .build());
+    }
+}
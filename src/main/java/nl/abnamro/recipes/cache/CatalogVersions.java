@@ -0,0 +1,117 @@
+package nl.abnamro.recipes.cache;
+
+import nl.abnamro.recipes.dto.RecipeFilter;
+import nl.abnamro.recipes.index.IngredientDictionary;
+import nl.abnamro.recipes.index.RecipePartitions;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Versions of the catalog and of its partitions: per ingredient, per serving
+ * size and per vegetarian flag. Every write takes the next value of a single
+ * clock and stamps it on the partitions of the old and the new version of
+ * the recipe, so the version a find result depends on only changes when a
+ * write could have changed that result.
+ */
+@Component
+public class CatalogVersions {
+
+    // Seeded with the time, so versions are not reused after a restart
+    private final AtomicLong clock = new AtomicLong(System.currentTimeMillis() * 1000);
+
+    private final Map<Integer, Long> ingredients = new ConcurrentHashMap<>();
+
+    private final Map<Integer, Long> serves = new ConcurrentHashMap<>();
+
+    private final Map<Boolean, Long> vegetarian = new ConcurrentHashMap<>();
+
+    private volatile long catalog = clock.get();
+
+    // Version of the partitions that were not written since the last reset
+    private volatile long reset = catalog;
+
+    @Autowired
+    private IngredientDictionary ingredientDictionary;
+
+    /**
+     * Stamps a new version on the catalog and on the given partitions; a null
+     * entry, for a recipe that did not exist before, is skipped.
+     */
+    public void written(RecipePartitions... partitions) {
+        var version = clock.incrementAndGet();
+
+        for (var partition : partitions) {
+            if (partition == null) {
+                continue;
+            }
+
+            partition.getIngredientIds().forEach(ingredientId -> ingredients.put(ingredientId, version));
+            serves.put(partition.getServes(), version);
+            vegetarian.put(partition.getVegetarian(), version);
+        }
+
+        catalog = version;
+    }
+
+    /**
+     * Forgets the partition versions after the catalog was changed behind the
+     * service: every version restarts from a new one.
+     */
+    public void reset() {
+        var version = clock.incrementAndGet();
+
+        ingredients.clear();
+        serves.clear();
+        vegetarian.clear();
+
+        reset = version;
+        catalog = version;
+    }
+
+    /**
+     * Returns the version the result of the filter depends on. Each of the
+     * ingredient, serving size and vegetarian filters bounds the recipes that
+     * can enter or leave the result, so the oldest of their versions is enough;
+     * the text and the exclude list do not bound it and use the whole catalog.
+     */
+    public long of(RecipeFilter filter) {
+        var version = catalog;
+
+        if (!filter.getInclude().isEmpty()) {
+            version = Math.min(version, ofIngredients(filter));
+        }
+
+        if (filter.getServings() != null) {
+            version = Math.min(version, serves.getOrDefault(filter.getServings(), reset));
+        }
+
+        if (filter.getVegetarian() != null) {
+            version = Math.min(version, vegetarian.getOrDefault(filter.getVegetarian(), reset));
+        }
+
+        return version;
+    }
+
+    private long ofIngredients(RecipeFilter filter) {
+        var all = filter.getIncludeMatch() == RecipeFilter.Match.ALL;
+        var version = all ? Long.MAX_VALUE : Long.MIN_VALUE;
+
+        for (var title : filter.getInclude()) {
+            var ingredientId = ingredientDictionary.idOf(title);
+            if (ingredientId == null) {
+                // A write can create it, and it has no version to follow yet
+                return catalog;
+            }
+
+            // With all, any one of the ingredients bounds the result
+            var ingredientVersion = ingredients.getOrDefault(ingredientId, reset);
+            version = all ? Math.min(version, ingredientVersion) : Math.max(version, ingredientVersion);
+        }
+
+        return version;
+    }
+}
@@ -0,0 +1,180 @@
+package nl.abnamro.recipes.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import nl.abnamro.recipes.dto.RecipeDto;
+import nl.abnamro.recipes.dto.RecipeFilter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Slice;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of find pages, weighted by the estimated size of the recipes
+ * they hold. Writes only evict the pages the changed recipes can affect: pages
+ * that contain them, and pages whose filter the new version matches.
+ * The cached recipes are shared between requests and must not be modified.
+ */
+@Component
+public class FindCache {
+
+    @lombok.Value
+    public static class Key {
+        RecipeFilter filter;
+
+        Integer after;
+
+        int limit;
+    }
+
+    private final AtomicLong writes = new AtomicLong();
+
+    private final long settleNanos;
+
+    private volatile long lastWriteNanos = System.nanoTime() - Long.MAX_VALUE / 2;
+
+    private final Cache<Key, Slice<RecipeDto>> cache;
+
+    public FindCache(@Value("${recipes.find.cache.max-weight:67108864}") long maxWeight,
+                     @Value("${recipes.find.cache.expire-after-write:10m}") Duration expireAfterWrite,
+                     @Value("${recipes.find.cache.settle-time:0s}") Duration settleTime,
+                     MeterRegistry meterRegistry) {
+
+        settleNanos = settleTime.toNanos();
+
+        cache = Caffeine.newBuilder()
+                .maximumWeight(maxWeight)
+                .weigher((Key key, Slice<RecipeDto> page) -> weigh(page))
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "recipes.find");
+        Gauge.builder("recipes.find.cache.weight", cache, FindCache::weightedSize)
+                .description("Estimated memory held by the cached find pages")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    public Slice<RecipeDto> get(RecipeFilter filter, Integer after, int limit, Supplier<Slice<RecipeDto>> loader) {
+        var key = new Key(filter, after, limit);
+
+        var page = cache.getIfPresent(key);
+        if (page != null) {
+            return page;
+        }
+
+        var stamp = writes.get();
+        page = loader.get();
+
+        // Pages read from a replica shortly after a write may not show it yet
+        if (System.nanoTime() - lastWriteNanos < settleNanos) {
+            return page;
+        }
+
+        cache.put(key, page);
+
+        // A write that ran during the load may have been missed by its eviction
+        if (writes.get() != stamp) {
+            cache.invalidate(key);
+        }
+
+        return page;
+    }
+
+    public void saved(Collection<RecipeDto> recipes) {
+        written();
+        cache.asMap().entrySet().removeIf(entry -> affectedBySave(entry, recipes));
+    }
+
+    public void deleted(Collection<Integer> recipeIds) {
+        written();
+        cache.asMap().entrySet().removeIf(entry -> recipeIds.stream()
+                .anyMatch(id -> contains(entry.getValue().getContent(), id)));
+    }
+
+    public void clear() {
+        written();
+        cache.invalidateAll();
+    }
+
+    private void written() {
+        writes.incrementAndGet();
+        lastWriteNanos = System.nanoTime();
+    }
+
+    private static boolean affectedBySave(Map.Entry<Key, Slice<RecipeDto>> entry, Collection<RecipeDto> recipes) {
+        var key = entry.getKey();
+
+        for (var recipe : recipes) {
+            if (contains(entry.getValue().getContent(), recipe.getRecipeId())) {
+                return true;
+            }
+
+            var after = key.getAfter();
+            if ((after == null || recipe.getRecipeId() > after) && key.getFilter().matches(recipe)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Pages are ordered by recipe id, so the id is looked up with a binary search.
+     */
+    private static boolean contains(List<RecipeDto> recipes, int recipeId) {
+        int low = 0;
+        int high = recipes.size() - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int id = recipes.get(middle).getRecipeId();
+
+            if (id < recipeId) {
+                low = middle + 1;
+            } else if (id > recipeId) {
+                high = middle - 1;
+            } else {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static int weigh(Slice<RecipeDto> page) {
+        long bytes = 64;
+
+        for (var recipe : page.getContent()) {
+            bytes += 96 + 2L * (length(recipe.getTitle()) + length(recipe.getInstructions()));
+
+            if (recipe.getIngredients() != null) {
+                for (var ingredient : recipe.getIngredients()) {
+                    bytes += 48 + 2L * length(ingredient);
+                }
+            }
+        }
+
+        return (int) Math.min(bytes, Integer.MAX_VALUE);
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    private static long weightedSize(Cache<Key, Slice<RecipeDto>> cache) {
+        return cache.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0L))
+                .orElse(0L);
+    }
+}
@@ -1,34 +1,151 @@
 package nl.abnamro.recipes.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.RuntimeJsonMappingException;
 import lombok.RequiredArgsConstructor;
+import nl.abnamro.recipes.dto.BatchResultDto;
+import nl.abnamro.recipes.dto.DeleteResultDto;
+import nl.abnamro.recipes.dto.ErrorDto;
+import nl.abnamro.recipes.dto.FacetsDto;
 import nl.abnamro.recipes.dto.RecipeDto;
+import nl.abnamro.recipes.dto.RecipeFilter;
+import nl.abnamro.recipes.service.RecipeBatchService;
 import nl.abnamro.recipes.service.RecipeService;
+import nl.abnamro.recipes.service.exception.BadRequestException;
+import nl.abnamro.recipes.utils.Cursor;
+import nl.abnamro.recipes.utils.Errors;
 import nl.abnamro.recipes.utils.SampleData;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @RequiredArgsConstructor
 @RestController
 @RequestMapping("/v1/recipe")
 public class RecipeController {
 
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
     @Autowired
     private RecipeService service;
 
+    @Autowired
+    private RecipeBatchService batchService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
     @GetMapping(path = "find")
-    public List<RecipeDto> find(
+    public ResponseEntity<List<RecipeDto>> find(
             @RequestParam(required = false) String text,
-            @RequestParam(required = false) String include,
-            @RequestParam(required = false) String exclude,
+            @RequestParam(required = false) List<String> include,
+            @RequestParam(required = false) String match,
+            @RequestParam(required = false) List<String> exclude,
             @RequestParam(required = false) Integer servings,
-            @RequestParam(required = false) Boolean vegetarian){
+            @RequestParam(required = false) Boolean vegetarian,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) Integer limit,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept){
+
+        var filter = RecipeFilter.of(text, include, parseMatch(match), exclude, servings, vegetarian);
+        var afterId = Cursor.decode(after);
+
+        // Pollers that already have the current version get a 304 without a query
+        var etag = etag(service.version(filter), filter, afterId, limit, accept);
+        if (matches(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).varyBy(HttpHeaders.ACCEPT).build();
+        }
+
+        var page = service.find(filter, afterId, limit);
+        var response = ResponseEntity.ok().eTag(etag).varyBy(HttpHeaders.ACCEPT);
 
-        var ls = service.find(text, include, exclude, servings, vegetarian);
-        return RecipeDto.toDTO(ls);
+        if (page.hasNext()) {
+            var last = page.getContent().get(page.getNumberOfElements() - 1);
+            response.header(NEXT_CURSOR_HEADER, Cursor.encode(last.getRecipeId()));
+        }
+
+        return response.body(page.getContent());
+    }
+
+    /**
+     * Streams every matching recipe as newline delimited JSON. Recipes are written
+     * as soon as their chunk of rows is read, for consumers that need the whole
+     * result. There is no limit, but the after cursor can resume a broken transfer.
+     */
+    @GetMapping(path = "find", produces = APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> findStream(
+            @RequestParam(required = false) String text,
+            @RequestParam(required = false) List<String> include,
+            @RequestParam(required = false) String match,
+            @RequestParam(required = false) List<String> exclude,
+            @RequestParam(required = false) Integer servings,
+            @RequestParam(required = false) Boolean vegetarian,
+            @RequestParam(required = false) String after){
+
+        var filter = RecipeFilter.of(text, include, parseMatch(match), exclude, servings, vegetarian);
+        var afterId = Cursor.decode(after);
+
+        StreamingResponseBody body = out -> {
+            try (var writer = objectMapper.writer()
+                    .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                    .withRootValueSeparator("\n")
+                    .writeValues(out)) {
+                var first = new AtomicBoolean(true);
+
+                service.stream(filter, afterId, recipe -> {
+                    try {
+                        writer.write(recipe);
+
+                        if (first.getAndSet(false)) {
+                            writer.flush();
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        };
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(APPLICATION_NDJSON_VALUE))
+                .body(body);
+    }
+
+    /**
+     * Counts the recipes that match the same filters as find, in total and per
+     * vegetarian flag, serving size and most used ingredients.
+     */
+    @GetMapping(path = "facets")
+    public ResponseEntity<FacetsDto> facets(
+            @RequestParam(required = false) String text,
+            @RequestParam(required = false) List<String> include,
+            @RequestParam(required = false) String match,
+            @RequestParam(required = false) List<String> exclude,
+            @RequestParam(required = false) Integer servings,
+            @RequestParam(required = false) Boolean vegetarian,
+            @RequestParam(required = false) Integer top){
+
+        var filter = RecipeFilter.of(text, include, parseMatch(match), exclude, servings, vegetarian);
+        return ResponseEntity.ok(service.facets(filter, top));
     }
 
     @PostMapping
@@ -43,28 +160,112 @@ public class RecipeController {
         return ResponseEntity.ok(recipeDto);
     }
 
+    @PostMapping(path = "batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<List<BatchResultDto>> saveBatch(@RequestBody List<RecipeDto> recipes) {
+        return ResponseEntity.ok(batchService.importAll(recipes.iterator()));
+    }
+
+    /**
+     * Imports newline delimited recipes while the body is read. Chunks imported
+     * before a malformed line are kept.
+     */
+    @PostMapping(path = "batch", consumes = APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<List<BatchResultDto>> saveBatchStream(InputStream body) {
+        try (MappingIterator<RecipeDto> recipes = objectMapper.readerFor(RecipeDto.class).readValues(body)) {
+            return ResponseEntity.ok(batchService.importAll(recipes));
+        } catch (IOException | RuntimeJsonMappingException e) {
+            throw new BadRequestException(new ErrorDto(Errors.INVALID_BATCH_BODY));
+        }
+    }
+
+    /**
+     * Deletes the recipes with the given ids, the ones matching the filters, or
+     * the given ones that match the filters. Either must be set.
+     */
+    @DeleteMapping
+    public ResponseEntity<DeleteResultDto> deleteAll(
+            @RequestParam(required = false) List<Integer> ids,
+            @RequestParam(required = false) String text,
+            @RequestParam(required = false) List<String> include,
+            @RequestParam(required = false) String match,
+            @RequestParam(required = false) List<String> exclude,
+            @RequestParam(required = false) Integer servings,
+            @RequestParam(required = false) Boolean vegetarian){
+
+        var filter = RecipeFilter.of(text, include, parseMatch(match), exclude, servings, vegetarian);
+        return ResponseEntity.ok(service.deleteAll(ids == null ? List.of() : ids, filter));
+    }
+
     @DeleteMapping("/{recipeId}")
     public ResponseEntity delete(@PathVariable Integer recipeId) {
         service.delete(recipeId);
         return ResponseEntity.ok().build();
     }
 
+    /**
+     * Tags a page of the find results with the version of the matching recipes
+     * and a digest of the request: the normalized filter, the cursor, the limit
+     * and the Accept header, which decides the encoding. The tag is weak,
+     * because the same page is sent compressed or not.
+     */
+    private static String etag(long version, RecipeFilter filter, Integer after, Integer limit, String accept) {
+        var request = filter + "|" + after + "|" + limit + "|" + accept;
+        var digest = DigestUtils.md5DigestAsHex(request.getBytes(StandardCharsets.UTF_8)).substring(0, 16);
+
+        return "W/\"" + Long.toString(version, Character.MAX_RADIX) + "-" + digest + "\"";
+    }
+
+    /**
+     * Compares the tags of If-None-Match with the weak comparison of RFC 7232.
+     */
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+
+        var opaque = opaqueTag(etag);
+        for (var tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+
+            if (tag.equals("*") || opaqueTag(tag).equals(opaque)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static String opaqueTag(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    private static RecipeFilter.Match parseMatch(String match) {
+        if (match == null || match.isEmpty()) {
+            return RecipeFilter.Match.ALL;
+        }
+
+        try {
+            return RecipeFilter.Match.valueOf(match.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(new ErrorDto("match", Errors.INVALID_MATCH));
+        }
+    }
+
     /**
      * This method is here just for test purposes. It will generate sample data
      * that can be inserted without running the testcase. The purpose is to
      * look for a recipe directly from browser or Postman after using
-     * docker compose to run the application.
+     * docker compose to run the application. With a count it inserts a seeded
+     * synthetic catalog of that size instead.
      */
     @GetMapping("/sampledata")
-    public ResponseEntity GenerateSampleData()
+    public ResponseEntity GenerateSampleData(
+            @RequestParam(required = false) Integer count,
+            @RequestParam(defaultValue = "42") long seed)
     {
-        var data = SampleData.create();
-
-        for (var d: data) {
-            service.save(d);
-        }
+        var data = count == null ? SampleData.create().iterator() : SampleData.generate(seed, count);
 
-        return ResponseEntity.ok().build();
+        return ResponseEntity.ok(batchService.importAll(data));
     }
 
 }
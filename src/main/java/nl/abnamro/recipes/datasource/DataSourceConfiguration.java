@@ -0,0 +1,69 @@
+package nl.abnamro.recipes.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+
+@Configuration
+@EnableConfigurationProperties(ReplicaProperties.class)
+public class DataSourceConfiguration {
+
+    /**
+     * Lazy proxy of the routing data source that closes its pools with the
+     * context; the pools are not beans of their own.
+     */
+    static class LazyRoutingDataSource extends LazyConnectionDataSourceProxy implements DisposableBean {
+
+        private final RoutingDataSource routing;
+
+        LazyRoutingDataSource(RoutingDataSource routing) {
+            super(routing);
+            this.routing = routing;
+        }
+
+        @Override
+        public void destroy() {
+            routing.destroy();
+        }
+    }
+
+    /**
+     * Replaces the single data source of Spring Boot when replicas are
+     * configured. The primary comes from the spring.datasource properties and
+     * uses the same driver as the replicas.
+     */
+    @Bean
+    @ConditionalOnProperty("recipes.datasource.replicas[0].url")
+    public DataSource dataSource(DataSourceProperties primaryProperties, ReplicaProperties replicaProperties) {
+        var primary = primaryProperties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        primary.setPoolName("primary");
+
+        var replicas = new ArrayList<HikariDataSource>();
+        for (var replica : replicaProperties.getReplicas()) {
+            var dataSource = DataSourceBuilder.create()
+                    .type(HikariDataSource.class)
+                    .driverClassName(primaryProperties.determineDriverClassName())
+                    .url(replica.getUrl())
+                    .username(replica.getUsername())
+                    .password(replica.getPassword())
+                    .build();
+            dataSource.setPoolName("replica-" + replicas.size());
+            dataSource.setReadOnly(true);
+            replicas.add(dataSource);
+        }
+
+        var routing = new RoutingDataSource(primary, replicas);
+        routing.afterPropertiesSet();
+
+        return new LazyRoutingDataSource(routing);
+    }
+}
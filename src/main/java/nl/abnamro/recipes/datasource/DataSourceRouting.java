@@ -0,0 +1,33 @@
+package nl.abnamro.recipes.datasource;
+
+/**
+ * Tells the routing data source that the current thread must use the
+ * primary, even in read-only transactions: for writes, whose checks must see
+ * the latest data, and for reads of clients that asked to read their writes.
+ */
+public final class DataSourceRouting {
+
+    private static final ThreadLocal<Boolean> PRIMARY = ThreadLocal.withInitial(() -> false);
+
+    private DataSourceRouting() {
+    }
+
+    public static boolean isPrimaryRequired() {
+        return PRIMARY.get();
+    }
+
+    /**
+     * Requires the primary until the returned scope is closed, then restores
+     * the previous state, so scopes can be nested.
+     */
+    public static Scope primary() {
+        var previous = PRIMARY.get();
+        PRIMARY.set(true);
+        return () -> PRIMARY.set(previous);
+    }
+
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,60 @@
+package nl.abnamro.recipes.datasource;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Gives write responses an X-Last-Write header with the time of the write.
+ * Clients that send it back on their reads are served by the primary until
+ * the read-your-writes window has passed, so they see their own writes even
+ * when the replicas lag behind.
+ */
+@Component
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+
+    public static final String LAST_WRITE_HEADER = "X-Last-Write";
+
+    @Autowired
+    private ReplicaProperties properties;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+
+        if (!HttpMethod.GET.matches(request.getMethod())) {
+            response.setHeader(LAST_WRITE_HEADER, Long.toString(System.currentTimeMillis()));
+            chain.doFilter(request, response);
+            return;
+        }
+
+        if (!wroteRecently(request.getHeader(LAST_WRITE_HEADER))) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        try (var primary = DataSourceRouting.primary()) {
+            chain.doFilter(request, response);
+        }
+    }
+
+    private boolean wroteRecently(String lastWrite) {
+        if (lastWrite == null) {
+            return false;
+        }
+
+        try {
+            var elapsed = System.currentTimeMillis() - Long.parseLong(lastWrite);
+            return elapsed < properties.getReadYourWritesWindow().toMillis();
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
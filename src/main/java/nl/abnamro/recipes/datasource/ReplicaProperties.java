@@ -0,0 +1,31 @@
+package nl.abnamro.recipes.datasource;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@ConfigurationProperties("recipes.datasource")
+public class ReplicaProperties {
+
+    @Data
+    public static class Replica {
+
+        private String url;
+
+        private String username;
+
+        private String password;
+    }
+
+    private List<Replica> replicas = new ArrayList<>();
+
+    /**
+     * How long after a write the client that made it keeps reading from the
+     * primary, when it sends back the X-Last-Write header.
+     */
+    private Duration readYourWritesWindow = Duration.ofSeconds(10);
+}
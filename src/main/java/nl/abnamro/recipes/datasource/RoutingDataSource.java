@@ -0,0 +1,75 @@
+package nl.abnamro.recipes.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends read-only transactions to one of the replicas and everything else to
+ * the primary. The replica with the fewest active connections is picked,
+ * starting the scan at a rotating position so ties are spread evenly. It must
+ * sit behind a LazyConnectionDataSourceProxy: the read-only flag of a
+ * transaction is only known after its connection is requested. It owns the
+ * pools it routes to and closes them when it is destroyed.
+ */
+public class RoutingDataSource extends AbstractRoutingDataSource implements DisposableBean {
+
+    static final String PRIMARY = "primary";
+
+    private final HikariDataSource primary;
+
+    private final List<HikariDataSource> replicas;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    public RoutingDataSource(HikariDataSource primary, List<HikariDataSource> replicas) {
+        this.primary = primary;
+        this.replicas = replicas;
+
+        var targets = new HashMap<Object, Object>();
+        targets.put(PRIMARY, primary);
+        for (int i = 0; i < replicas.size(); i++) {
+            targets.put(i, replicas.get(i));
+        }
+
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+    }
+
+    @Override
+    public void destroy() {
+        replicas.forEach(HikariDataSource::close);
+        primary.close();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (replicas.isEmpty()
+                || !TransactionSynchronizationManager.isCurrentTransactionReadOnly()
+                || DataSourceRouting.isPrimaryRequired()) {
+            return PRIMARY;
+        }
+
+        var start = Math.floorMod(next.getAndIncrement(), replicas.size());
+        var chosen = start;
+        var fewest = Integer.MAX_VALUE;
+
+        for (int i = 0; i < replicas.size(); i++) {
+            var candidate = (start + i) % replicas.size();
+            var pool = replicas.get(candidate).getHikariPoolMXBean();
+            var active = pool == null ? 0 : pool.getActiveConnections();
+
+            if (active < fewest) {
+                chosen = candidate;
+                fewest = active;
+            }
+        }
+
+        return chosen;
+    }
+}
@@ -4,6 +4,9 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import nl.abnamro.recipes.id.BlockIdGenerator;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 
 import javax.persistence.*;
 
@@ -14,7 +17,9 @@ import javax.persistence.*;
 @Entity
 public class Ingredient {
     @Id
-    @GeneratedValue(strategy= GenerationType.IDENTITY)
+    @GeneratedValue(generator = "ingredient_id")
+    @GenericGenerator(name = "ingredient_id", strategy = BlockIdGenerator.STRATEGY,
+            parameters = @Parameter(name = "segment_value", value = "ingredient"))
     private Integer ingredientId;
 
     private String title;
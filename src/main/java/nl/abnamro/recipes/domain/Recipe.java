@@ -5,6 +5,10 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import nl.abnamro.recipes.id.BlockIdGenerator;
+import nl.abnamro.recipes.repository.RecipeText;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 
 import javax.persistence.*;
 import java.util.List;
@@ -14,10 +18,12 @@ import java.util.List;
 @Builder
 @NoArgsConstructor
 @Entity
-public class Recipe {
+public class Recipe implements RecipeText {
 
     @Id
-    @GeneratedValue(strategy= GenerationType.IDENTITY)
+    @GeneratedValue(generator = "recipe_id")
+    @GenericGenerator(name = "recipe_id", strategy = BlockIdGenerator.STRATEGY,
+            parameters = @Parameter(name = "segment_value", value = "recipe"))
     private Integer recipeId;
 
     private String title;
@@ -28,6 +34,9 @@ public class Recipe {
 
     private Boolean vegetarian;
 
+    @Version
+    private Integer version;
+
     @ManyToMany(fetch = FetchType.EAGER)
     @JoinTable(
             name = "recipe_ingredient",
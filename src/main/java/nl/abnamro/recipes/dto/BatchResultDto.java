@@ -0,0 +1,27 @@
+package nl.abnamro.recipes.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@AllArgsConstructor
+@Data
+@Builder
+@NoArgsConstructor
+public class BatchResultDto {
+
+    public enum Status { CREATED, CONFLICT, INVALID, FAILED }
+
+    private int index;
+
+    private Integer recipeId;
+
+    private String title;
+
+    private Status status;
+
+    private List<ErrorDto> errors;
+}
@@ -0,0 +1,15 @@
+package nl.abnamro.recipes.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@AllArgsConstructor
+@Data
+@Builder
+@NoArgsConstructor
+public class DeleteResultDto {
+
+    private int deleted;
+}
@@ -0,0 +1,34 @@
+package nl.abnamro.recipes.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+
+@AllArgsConstructor
+@Data
+@Builder
+@NoArgsConstructor
+public class FacetsDto {
+
+    @AllArgsConstructor
+    @Data
+    @NoArgsConstructor
+    public static class IngredientCount {
+
+        private String title;
+
+        private long count;
+    }
+
+    private long count;
+
+    private Map<Boolean, Long> vegetarian;
+
+    private Map<Integer, Long> serves;
+
+    private List<IngredientCount> ingredients;
+}
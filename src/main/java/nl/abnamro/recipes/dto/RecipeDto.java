@@ -31,6 +31,12 @@ public class RecipeDto {
     @NotNull
     public List<String> ingredients;
 
+    /**
+     * The version the recipe had when it was read. An update that carries it
+     * fails with a conflict when the recipe was changed in the meantime.
+     */
+    private Integer version;
+
     public static Recipe toEntity(RecipeDto dto){
         return  Recipe.builder()
                 .recipeId(dto.getRecipeId())
@@ -38,6 +44,7 @@ public class RecipeDto {
                 .instructions(dto.getInstructions())
                 .serves(dto.getServes())
                 .vegetarian(dto.getVegetarian())
+                .version(dto.getVersion())
                 .build();
     }
 
@@ -58,6 +65,7 @@ public class RecipeDto {
                 .instructions(recipe.getInstructions())
                 .serves(recipe.getServes())
                 .vegetarian(recipe.getVegetarian())
+                .version(recipe.getVersion())
                 .build();
 
         if (recipe.getIngredients() != null) {
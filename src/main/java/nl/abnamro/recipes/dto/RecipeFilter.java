@@ -0,0 +1,152 @@
+package nl.abnamro.recipes.dto;
+
+import lombok.Value;
+import nl.abnamro.recipes.utils.Titles;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.StringJoiner;
+import java.util.stream.Collectors;
+
+/**
+ * Filters of the recipe search in a normalized form: blank values are dropped
+ * and the text and ingredients are folded to lower case, which the case
+ * insensitive collation of the columns compares as equal anyway. Ingredient
+ * lists are sorted and without duplicates. Two requests that find the same
+ * recipes therefore have equal filters.
+ */
+@Value
+public class RecipeFilter {
+
+    /**
+     * How the included ingredients are combined: the recipe uses all of them,
+     * or at least one of them.
+     */
+    public enum Match {
+        ALL, ANY
+    }
+
+    String text;
+
+    List<String> include;
+
+    Match includeMatch;
+
+    List<String> exclude;
+
+    Integer servings;
+
+    Boolean vegetarian;
+
+    public static RecipeFilter of(String text, String include, String exclude, Integer servings, Boolean vegetarian) {
+        return of(text, include == null ? null : List.of(include), Match.ALL,
+                exclude == null ? null : List.of(exclude), servings, vegetarian);
+    }
+
+    public static RecipeFilter of(String text, Collection<String> include, Match includeMatch,
+                                  Collection<String> exclude, Integer servings, Boolean vegetarian) {
+        return new RecipeFilter(
+                isBlank(text) ? null : text.toLowerCase(Locale.ROOT),
+                normalize(include),
+                includeMatch == null ? Match.ALL : includeMatch,
+                normalize(exclude),
+                servings,
+                vegetarian);
+    }
+
+    /**
+     * Names the filters that are set, like "include+servings", or "none". There
+     * are 32 shapes, few enough to tag metrics with.
+     */
+    public String shape() {
+        var shape = new StringJoiner("+");
+        if (text != null) {
+            shape.add("text");
+        }
+        if (!include.isEmpty()) {
+            shape.add("include");
+        }
+        if (!exclude.isEmpty()) {
+            shape.add("exclude");
+        }
+        if (servings != null) {
+            shape.add("servings");
+        }
+        if (vegetarian != null) {
+            shape.add("vegetarian");
+        }
+
+        return shape.length() == 0 ? "none" : shape.toString();
+    }
+
+    /**
+     * Tells whether the recipe can be part of the result of this filter.
+     */
+    public boolean matches(RecipeDto recipe) {
+        if (servings != null && !servings.equals(recipe.getServes())) {
+            return false;
+        }
+
+        if (vegetarian != null && !vegetarian.equals(recipe.getVegetarian())) {
+            return false;
+        }
+
+        if (!include.isEmpty()) {
+            var used = include.stream().filter(ingredient -> hasIngredient(recipe, ingredient)).count();
+            if (includeMatch == Match.ALL ? used < include.size() : used == 0) {
+                return false;
+            }
+        }
+
+        if (exclude.stream().anyMatch(ingredient -> hasIngredient(recipe, ingredient))) {
+            return false;
+        }
+
+        if (text != null) {
+            var folded = Titles.fold(text);
+            var title = Titles.fold(recipe.getTitle());
+            var instructions = Titles.fold(recipe.getInstructions());
+
+            // Letters that do not fold to ASCII may expand in the collation, only the database can tell
+            if (!Titles.isExactFold(folded) || !Titles.isExactFold(title) || !Titles.isExactFold(instructions)) {
+                return true;
+            }
+
+            return title.contains(folded) || instructions.contains(folded);
+        }
+
+        return true;
+    }
+
+    private static boolean hasIngredient(RecipeDto recipe, String ingredient) {
+        if (recipe.getIngredients() == null) {
+            return false;
+        }
+
+        for (var title : recipe.getIngredients()) {
+            if (Titles.normalize(title).equals(ingredient)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static List<String> normalize(Collection<String> titles) {
+        if (titles == null) {
+            return List.of();
+        }
+
+        return titles.stream()
+                .filter(title -> !isBlank(title))
+                .map(Titles::normalize)
+                .distinct()
+                .sorted()
+                .collect(Collectors.toUnmodifiableList());
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isEmpty();
+    }
+}
@@ -0,0 +1,22 @@
+package nl.abnamro.recipes.encoding;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+/**
+ * Adds the protobuf encoding of recipes. Smile and CBOR are registered by
+ * Spring itself once their Jackson modules are on the classpath. Every binary
+ * converter comes after the JSON one, so clients that accept anything keep
+ * getting JSON.
+ */
+@Configuration
+public class EncodingConfiguration implements WebMvcConfigurer {
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(new RecipeProtobufHttpMessageConverter());
+    }
+}
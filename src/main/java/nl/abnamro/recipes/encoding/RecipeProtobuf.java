@@ -0,0 +1,174 @@
+package nl.abnamro.recipes.encoding;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+import nl.abnamro.recipes.dto.RecipeDto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes and reads recipes in the protobuf wire format of proto/recipe.proto,
+ * straight from and into DTOs, without generated message classes. Fields
+ * that are null are left out.
+ */
+public final class RecipeProtobuf {
+
+    private static final int RECIPE_LIST_RECIPES = 1;
+
+    private static final int RECIPE_ID = 1;
+    private static final int TITLE = 2;
+    private static final int INSTRUCTIONS = 3;
+    private static final int SERVES = 4;
+    private static final int VEGETARIAN = 5;
+    private static final int INGREDIENTS = 6;
+    private static final int VERSION = 7;
+
+    private RecipeProtobuf() {
+    }
+
+    /**
+     * Writes the recipes as a RecipeList message.
+     */
+    public static void writeList(List<RecipeDto> recipes, OutputStream stream) throws IOException {
+        var out = CodedOutputStream.newInstance(stream);
+
+        for (var recipe : recipes) {
+            out.writeTag(RECIPE_LIST_RECIPES, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            out.writeUInt32NoTag(size(recipe));
+            writeFields(recipe, out);
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Writes the recipe as a Recipe message.
+     */
+    public static void write(RecipeDto recipe, OutputStream stream) throws IOException {
+        var out = CodedOutputStream.newInstance(stream);
+        writeFields(recipe, out);
+        out.flush();
+    }
+
+    public static List<RecipeDto> readList(InputStream stream) throws IOException {
+        var in = CodedInputStream.newInstance(stream);
+        var recipes = new ArrayList<RecipeDto>();
+
+        for (int tag = in.readTag(); tag != 0; tag = in.readTag()) {
+            if (WireFormat.getTagFieldNumber(tag) != RECIPE_LIST_RECIPES) {
+                in.skipField(tag);
+                continue;
+            }
+
+            var limit = in.pushLimit(in.readRawVarint32());
+            recipes.add(readFields(in));
+            in.popLimit(limit);
+        }
+
+        return recipes;
+    }
+
+    public static RecipeDto read(InputStream stream) throws IOException {
+        return readFields(CodedInputStream.newInstance(stream));
+    }
+
+    private static void writeFields(RecipeDto recipe, CodedOutputStream out) throws IOException {
+        if (recipe.getRecipeId() != null) {
+            out.writeInt32(RECIPE_ID, recipe.getRecipeId());
+        }
+        if (recipe.getTitle() != null) {
+            out.writeString(TITLE, recipe.getTitle());
+        }
+        if (recipe.getInstructions() != null) {
+            out.writeString(INSTRUCTIONS, recipe.getInstructions());
+        }
+        if (recipe.getServes() != null) {
+            out.writeInt32(SERVES, recipe.getServes());
+        }
+        if (recipe.getVegetarian() != null) {
+            out.writeBool(VEGETARIAN, recipe.getVegetarian());
+        }
+        if (recipe.getIngredients() != null) {
+            for (var ingredient : recipe.getIngredients()) {
+                out.writeString(INGREDIENTS, ingredient);
+            }
+        }
+        if (recipe.getVersion() != null) {
+            out.writeInt32(VERSION, recipe.getVersion());
+        }
+    }
+
+    private static int size(RecipeDto recipe) {
+        int size = 0;
+
+        if (recipe.getRecipeId() != null) {
+            size += CodedOutputStream.computeInt32Size(RECIPE_ID, recipe.getRecipeId());
+        }
+        if (recipe.getTitle() != null) {
+            size += CodedOutputStream.computeStringSize(TITLE, recipe.getTitle());
+        }
+        if (recipe.getInstructions() != null) {
+            size += CodedOutputStream.computeStringSize(INSTRUCTIONS, recipe.getInstructions());
+        }
+        if (recipe.getServes() != null) {
+            size += CodedOutputStream.computeInt32Size(SERVES, recipe.getServes());
+        }
+        if (recipe.getVegetarian() != null) {
+            size += CodedOutputStream.computeBoolSize(VEGETARIAN, recipe.getVegetarian());
+        }
+        if (recipe.getIngredients() != null) {
+            for (var ingredient : recipe.getIngredients()) {
+                size += CodedOutputStream.computeStringSize(INGREDIENTS, ingredient);
+            }
+        }
+        if (recipe.getVersion() != null) {
+            size += CodedOutputStream.computeInt32Size(VERSION, recipe.getVersion());
+        }
+
+        return size;
+    }
+
+    private static RecipeDto readFields(CodedInputStream in) throws IOException {
+        // proto3 leaves out default values, so absent fields read as them
+        var recipe = RecipeDto.builder()
+                .serves(0)
+                .vegetarian(false)
+                .ingredients(new ArrayList<>())
+                .build();
+
+        for (int tag = in.readTag(); tag != 0; tag = in.readTag()) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case RECIPE_ID:
+                    recipe.setRecipeId(in.readInt32());
+                    break;
+                case TITLE:
+                    recipe.setTitle(in.readString());
+                    break;
+                case INSTRUCTIONS:
+                    recipe.setInstructions(in.readString());
+                    break;
+                case SERVES:
+                    recipe.setServes(in.readInt32());
+                    break;
+                case VEGETARIAN:
+                    recipe.setVegetarian(in.readBool());
+                    break;
+                case INGREDIENTS:
+                    recipe.getIngredients().add(in.readString());
+                    break;
+                case VERSION:
+                    recipe.setVersion(in.readInt32());
+                    break;
+                default:
+                    in.skipField(tag);
+            }
+        }
+
+        return recipe;
+    }
+}
@@ -0,0 +1,82 @@
+package nl.abnamro.recipes.encoding;
+
+import nl.abnamro.recipes.dto.RecipeDto;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractGenericHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.List;
+
+/**
+ * Reads and writes recipes and lists of recipes as application/x-protobuf,
+ * following proto/recipe.proto. Other bodies, like errors and facets, are
+ * left to the JSON and binary JSON converters.
+ */
+public class RecipeProtobufHttpMessageConverter extends AbstractGenericHttpMessageConverter<Object> {
+
+    public static final String APPLICATION_PROTOBUF_VALUE = "application/x-protobuf";
+
+    public static final MediaType APPLICATION_PROTOBUF = MediaType.parseMediaType(APPLICATION_PROTOBUF_VALUE);
+
+    public RecipeProtobufHttpMessageConverter() {
+        super(APPLICATION_PROTOBUF);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return RecipeDto.class.isAssignableFrom(clazz) || List.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    public boolean canRead(Type type, Class<?> contextClass, MediaType mediaType) {
+        return isRecipe(type) && canRead(mediaType);
+    }
+
+    @Override
+    public boolean canWrite(Type type, Class<?> clazz, MediaType mediaType) {
+        return (type == null || type == Object.class ? RecipeDto.class.isAssignableFrom(clazz) : isRecipe(type))
+                && canWrite(mediaType);
+    }
+
+    @Override
+    protected void writeInternal(Object body, Type type, HttpOutputMessage outputMessage) throws IOException {
+        if (body instanceof RecipeDto) {
+            RecipeProtobuf.write((RecipeDto) body, outputMessage.getBody());
+        } else {
+            @SuppressWarnings("unchecked")
+            var recipes = (List<RecipeDto>) body;
+            RecipeProtobuf.writeList(recipes, outputMessage.getBody());
+        }
+    }
+
+    @Override
+    public Object read(Type type, Class<?> contextClass, HttpInputMessage inputMessage) throws IOException {
+        return type == RecipeDto.class
+                ? RecipeProtobuf.read(inputMessage.getBody())
+                : RecipeProtobuf.readList(inputMessage.getBody());
+    }
+
+    @Override
+    protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage) throws IOException {
+        if (!RecipeDto.class.isAssignableFrom(clazz)) {
+            throw new HttpMessageNotReadableException("Only recipes are read as protobuf", inputMessage);
+        }
+
+        return RecipeProtobuf.read(inputMessage.getBody());
+    }
+
+    private static boolean isRecipe(Type type) {
+        if (type == RecipeDto.class) {
+            return true;
+        }
+
+        return type instanceof ParameterizedType
+                && ((ParameterizedType) type).getRawType() == List.class
+                && ((ParameterizedType) type).getActualTypeArguments()[0] == RecipeDto.class;
+    }
+}
@@ -0,0 +1,41 @@
+package nl.abnamro.recipes.id;
+
+import org.hibernate.MappingException;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.id.enhanced.StandardOptimizerDescriptor;
+import org.hibernate.id.enhanced.TableGenerator;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+import java.util.Properties;
+
+/**
+ * Hands out ids from blocks reserved in the id_block table, which has one row
+ * per entity. A block is reserved in a short transaction of its own, so ids
+ * are known before the rows are inserted and the inserts can be batched.
+ * The row holds the first id of the next block (pooled-lo), so the block size
+ * can change between restarts, and between instances, without reusing ids.
+ */
+public class BlockIdGenerator extends TableGenerator {
+
+    public static final String STRATEGY = "nl.abnamro.recipes.id.BlockIdGenerator";
+
+    public static final String BLOCK_SIZE = "recipes.ids.block-size";
+
+    public static final int DEFAULT_BLOCK_SIZE = 100;
+
+    @Override
+    public void configure(Type type, Properties params, ServiceRegistry serviceRegistry) throws MappingException {
+        var settings = serviceRegistry.getService(ConfigurationService.class).getSettings();
+        var blockSize = ConfigurationHelper.getInt(BLOCK_SIZE, settings, DEFAULT_BLOCK_SIZE);
+
+        params.setProperty(TABLE_PARAM, "id_block");
+        params.setProperty(SEGMENT_COLUMN_PARAM, "entity_name");
+        params.setProperty(VALUE_COLUMN_PARAM, "next_id");
+        params.setProperty(INCREMENT_PARAM, String.valueOf(blockSize));
+        params.setProperty(OPT_PARAM, StandardOptimizerDescriptor.POOLED_LO.getExternalName());
+
+        super.configure(type, params, serviceRegistry);
+    }
+}
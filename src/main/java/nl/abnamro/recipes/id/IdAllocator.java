@@ -0,0 +1,36 @@
+package nl.abnamro.recipes.id;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * Allocates ids for rows written with JDBC from the same blocks Hibernate
+ * uses for the entity, so both kinds of writes share one id space. Reserving
+ * a block takes a connection of its own, so callers that do not hold one yet
+ * should allocate before they start their transaction: a caller that holds a
+ * connection while it waits for a second one can starve the pool.
+ */
+@Component
+public class IdAllocator {
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    public int[] next(Class<?> entityClass, int count) {
+        var factory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+        var generator = factory.getMetamodel().entityPersister(entityClass).getIdentifierGenerator();
+
+        var ids = new int[count];
+        try (var session = factory.openStatelessSession()) {
+            for (int i = 0; i < count; i++) {
+                ids[i] = ((Number) generator.generate((SharedSessionContractImplementor) session, null)).intValue();
+            }
+        }
+
+        return ids;
+    }
+}
@@ -0,0 +1,19 @@
+package nl.abnamro.recipes.id;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Passes the id block size to Hibernate, where {@link BlockIdGenerator} reads it.
+ */
+@Configuration
+public class IdConfiguration {
+
+    @Bean
+    public HibernatePropertiesCustomizer idBlockSize(
+            @Value("${recipes.ids.block-size:" + BlockIdGenerator.DEFAULT_BLOCK_SIZE + "}") int blockSize) {
+        return properties -> properties.put(BlockIdGenerator.BLOCK_SIZE, blockSize);
+    }
+}
@@ -0,0 +1,102 @@
+package nl.abnamro.recipes.index;
+
+import nl.abnamro.recipes.domain.Ingredient;
+import nl.abnamro.recipes.utils.Titles;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory dictionary of the ingredients, from title to id and from id to the
+ * canonical title. Every ingredient title is kept as one String instance that
+ * all the DTOs built from the dictionary share. Like the other indexes it is
+ * loaded at startup and follows the writes made through the services.
+ * Ingredients are only ever added between loads, so lookups and additions go
+ * to concurrent maps without a lock; the title of an id is published before
+ * the id of the title, so whoever finds an id also finds its title.
+ */
+@Component
+public class IngredientDictionary {
+
+    private final Map<String, Integer> idsByTitle = new ConcurrentHashMap<>();
+
+    private final Map<Integer, String> titlesById = new ConcurrentHashMap<>();
+
+    /**
+     * Replaces the content with the given ingredients. The ingredients are
+     * added before the ones that are gone are removed, so lookups of the
+     * remaining ones keep working during the load.
+     */
+    public synchronized void load(Iterable<Ingredient> ingredients) {
+        var titles = new HashSet<String>();
+        var ids = new HashSet<Integer>();
+
+        for (var ingredient : ingredients) {
+            titlesById.put(ingredient.getIngredientId(), ingredient.getTitle());
+            idsByTitle.put(Titles.normalize(ingredient.getTitle()), ingredient.getIngredientId());
+
+            titles.add(Titles.normalize(ingredient.getTitle()));
+            ids.add(ingredient.getIngredientId());
+        }
+
+        idsByTitle.keySet().retainAll(titles);
+        titlesById.keySet().retainAll(ids);
+    }
+
+    public void putAll(Iterable<Ingredient> ingredients) {
+        for (var ingredient : ingredients) {
+            putIngredient(ingredient);
+        }
+    }
+
+    /**
+     * Adds the ingredient and makes it known under another title as well. Used
+     * for titles that the collation of ingredient.title considers equal to the
+     * canonical one while their keys differ, such as accent variants. Aliases
+     * last until the next load.
+     */
+    public void putAlias(String title, Ingredient ingredient) {
+        putIngredient(ingredient);
+        idsByTitle.put(Titles.normalize(title), ingredient.getIngredientId());
+    }
+
+    /**
+     * Returns the id of the ingredient with the given title, or null when it is
+     * unknown. The lookup is case-insensitive; other variants the collation of
+     * ingredient.title matches are only found once added as aliases.
+     */
+    public Integer idOf(String title) {
+        return idsByTitle.get(Titles.normalize(title));
+    }
+
+    /**
+     * Returns the canonical title of the ingredient, or null when it is unknown.
+     */
+    public String titleOf(int ingredientId) {
+        return titlesById.get(ingredientId);
+    }
+
+    /**
+     * Returns a detached ingredient carrying the canonical title, or null when
+     * the title is unknown.
+     */
+    public Ingredient get(String title) {
+        var ingredientId = idsByTitle.get(Titles.normalize(title));
+        if (ingredientId == null) {
+            return null;
+        }
+
+        return new Ingredient(ingredientId, titlesById.get(ingredientId));
+    }
+
+    private void putIngredient(Ingredient ingredient) {
+        var canonical = titlesById.putIfAbsent(ingredient.getIngredientId(), ingredient.getTitle());
+        if (canonical == null) {
+            canonical = ingredient.getTitle();
+        }
+
+        idsByTitle.put(Titles.normalize(canonical), ingredient.getIngredientId());
+    }
+}
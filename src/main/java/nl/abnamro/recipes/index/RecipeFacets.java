@@ -0,0 +1,21 @@
+package nl.abnamro.recipes.index;
+
+import lombok.Value;
+
+import java.util.Map;
+
+/**
+ * Counts of a set of recipes per vegetarian flag, serving size and ingredient
+ * id, as computed by {@link RecipeIndex#facets}.
+ */
+@Value
+public class RecipeFacets {
+
+    long count;
+
+    Map<Boolean, Long> vegetarian;
+
+    Map<Integer, Long> serves;
+
+    Map<Integer, Long> ingredients;
+}
@@ -0,0 +1,331 @@
+package nl.abnamro.recipes.index;
+
+import nl.abnamro.recipes.domain.Recipe;
+import nl.abnamro.recipes.dto.RecipeFilter;
+import nl.abnamro.recipes.repository.RecipeAttributes;
+import nl.abnamro.recipes.repository.RecipeIngredientId;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index that maps every ingredient to a compressed bitmap
+ * of the recipes using it. Include and exclude lists are resolved here with
+ * bitmap intersections and unions, so the database only receives the surviving recipe ids.
+ * Serving sizes and the vegetarian flag are kept as bitmaps as well, which
+ * lets the facets of a result be counted without reading the recipes.
+ * The partitions of every recipe are kept next to the bitmaps, so a recipe is
+ * removed from its own postings only. Recipes with new ids are added without
+ * looking for postings to remove.
+ * The index is only as current as the writes made through RecipeService.
+ */
+@Component
+public class RecipeIndex {
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @Autowired
+    private IngredientDictionary ingredientDictionary;
+
+    private final Map<Integer, RoaringBitmap> recipesByIngredient = new HashMap<>();
+
+    private final Map<Integer, RoaringBitmap> recipesByServes = new TreeMap<>();
+
+    private final Map<Boolean, RoaringBitmap> recipesByVegetarian = new TreeMap<>();
+
+    private final RoaringBitmap allRecipes = new RoaringBitmap();
+
+    private final Map<Integer, RecipePartitions> partitionsByRecipe = new HashMap<>();
+
+    public void rebuild(Iterable<RecipeAttributes> attributes, Iterable<RecipeIngredientId> links) {
+        lock.writeLock().lock();
+        try {
+            allRecipes.clear();
+            recipesByServes.clear();
+            recipesByVegetarian.clear();
+            recipesByIngredient.clear();
+            partitionsByRecipe.clear();
+
+            for (var recipe : attributes) {
+                addAttributes(recipe.getRecipeId(), recipe.getServes(), recipe.getVegetarian());
+                partitionsByRecipe.put(recipe.getRecipeId(),
+                        new RecipePartitions(new ArrayList<>(), recipe.getServes(), recipe.getVegetarian()));
+            }
+
+            for (var link : links) {
+                recipesByIngredient.computeIfAbsent(link.getIngredientId(), k -> new RoaringBitmap())
+                        .add(link.getRecipeId());
+
+                var partitions = partitionsByRecipe.get(link.getRecipeId());
+                if (partitions != null) {
+                    partitions.getIngredientIds().add(link.getIngredientId());
+                }
+            }
+
+            allRecipes.runOptimize();
+            recipesByServes.values().forEach(RoaringBitmap::runOptimize);
+            recipesByVegetarian.values().forEach(RoaringBitmap::runOptimize);
+            recipesByIngredient.values().forEach(RoaringBitmap::runOptimize);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void put(Recipe recipe) {
+        var partitions = RecipePartitions.of(recipe);
+
+        lock.writeLock().lock();
+        try {
+            removeRecipe(recipe.getRecipeId());
+            addRecipe(recipe.getRecipeId(), partitions);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds recipes that are not in the index yet, such as recipes with newly
+     * allocated ids, without removing anything first.
+     */
+    public void addAll(Collection<Recipe> recipes) {
+        var partitions = new ArrayList<RecipePartitions>(recipes.size());
+        for (var recipe : recipes) {
+            partitions.add(RecipePartitions.of(recipe));
+        }
+
+        lock.writeLock().lock();
+        try {
+            var next = partitions.iterator();
+            for (var recipe : recipes) {
+                addRecipe(recipe.getRecipeId(), next.next());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(int recipeId) {
+        lock.writeLock().lock();
+        try {
+            removeRecipe(recipeId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeAll(RoaringBitmap recipeIds) {
+        lock.writeLock().lock();
+        try {
+            for (int recipeId : recipeIds) {
+                removeRecipe(recipeId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the partitions the recipe is indexed under, or null when the
+     * recipe is not in the index.
+     */
+    public RecipePartitions partitionsOf(int recipeId) {
+        lock.readLock().lock();
+        try {
+            return partitionsByRecipe.get(recipeId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the recipes that use every one of the given ingredients. The
+     * postings are intersected from the smallest one up, so the cost follows
+     * their sizes and stops as soon as nothing is left. Titles are matched
+     * case-insensitively, like the collation of ingredient.title.
+     */
+    public RoaringBitmap recipesWithAll(Collection<String> ingredientTitles) {
+        var ingredientIds = idsOf(ingredientTitles);
+        if (ingredientIds.size() < ingredientTitles.size()) {
+            return new RoaringBitmap();
+        }
+
+        lock.readLock().lock();
+        try {
+            var postings = new ArrayList<RoaringBitmap>(ingredientIds.size());
+            for (var ingredientId : ingredientIds) {
+                var recipes = recipesByIngredient.get(ingredientId);
+                if (recipes == null) {
+                    return new RoaringBitmap();
+                }
+                postings.add(recipes);
+            }
+
+            postings.sort(Comparator.comparingLong(RoaringBitmap::getLongCardinality));
+
+            var result = postings.isEmpty() ? new RoaringBitmap() : postings.get(0).clone();
+            for (int i = 1; i < postings.size() && !result.isEmpty(); i++) {
+                result.and(postings.get(i));
+            }
+
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the recipes that use at least one of the given ingredients, as one
+     * union of their postings.
+     */
+    public RoaringBitmap recipesWithAny(Collection<String> ingredientTitles) {
+        var ingredientIds = idsOf(ingredientTitles);
+
+        lock.readLock().lock();
+        try {
+            var postings = new ArrayList<RoaringBitmap>(ingredientIds.size());
+            for (var ingredientId : ingredientIds) {
+                var recipes = recipesByIngredient.get(ingredientId);
+                if (recipes != null) {
+                    postings.add(recipes);
+                }
+            }
+
+            return FastAggregation.or(postings.iterator());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the recipes that match the filter, which must not have a text
+     * filter: only the database can tell which recipes contain a text.
+     */
+    public RoaringBitmap matching(RecipeFilter filter) {
+        var include = filter.getInclude();
+        RoaringBitmap result = null;
+        if (!include.isEmpty()) {
+            result = filter.getIncludeMatch() == RecipeFilter.Match.ALL
+                    ? recipesWithAll(include)
+                    : recipesWithAny(include);
+        }
+
+        var excluded = filter.getExclude().isEmpty() ? null : recipesWithAny(filter.getExclude());
+
+        lock.readLock().lock();
+        try {
+            if (result == null) {
+                result = allRecipes.clone();
+            }
+
+            if (excluded != null) {
+                result.andNot(excluded);
+            }
+
+            if (filter.getServings() != null) {
+                result.and(recipesByServes.getOrDefault(filter.getServings(), new RoaringBitmap()));
+            }
+
+            if (filter.getVegetarian() != null) {
+                result.and(recipesByVegetarian.getOrDefault(filter.getVegetarian(), new RoaringBitmap()));
+            }
+
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Counts the given recipes per serving size and per vegetarian flag, and per
+     * ingredient id for the ingredients they use, with one intersection count
+     * per bitmap and without materializing the intersections.
+     */
+    public RecipeFacets facets(RoaringBitmap matched) {
+        lock.readLock().lock();
+        try {
+            return new RecipeFacets(
+                    matched.getLongCardinality(),
+                    countEach(recipesByVegetarian, matched),
+                    countEach(recipesByServes, matched),
+                    countEach(recipesByIngredient, matched));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static <K> Map<K, Long> countEach(Map<K, RoaringBitmap> postings, RoaringBitmap matched) {
+        var counts = new LinkedHashMap<K, Long>();
+        if (matched.isEmpty()) {
+            return counts;
+        }
+
+        postings.forEach((key, recipes) -> {
+            var count = RoaringBitmap.andCardinality(recipes, matched);
+            if (count > 0) {
+                counts.put(key, (long) count);
+            }
+        });
+
+        return counts;
+    }
+
+    private void addRecipe(int recipeId, RecipePartitions partitions) {
+        partitionsByRecipe.put(recipeId, partitions);
+        addAttributes(recipeId, partitions.getServes(), partitions.getVegetarian());
+
+        for (var ingredientId : partitions.getIngredientIds()) {
+            recipesByIngredient.computeIfAbsent(ingredientId, k -> new RoaringBitmap()).add(recipeId);
+        }
+    }
+
+    private void addAttributes(int recipeId, Integer serves, Boolean vegetarian) {
+        allRecipes.add(recipeId);
+        recipesByServes.computeIfAbsent(serves, k -> new RoaringBitmap()).add(recipeId);
+        recipesByVegetarian.computeIfAbsent(vegetarian, k -> new RoaringBitmap()).add(recipeId);
+    }
+
+    private List<Integer> idsOf(Collection<String> ingredientTitles) {
+        var ingredientIds = new ArrayList<Integer>(ingredientTitles.size());
+        for (var title : ingredientTitles) {
+            var ingredientId = ingredientDictionary.idOf(title);
+            if (ingredientId != null) {
+                ingredientIds.add(ingredientId);
+            }
+        }
+
+        return ingredientIds;
+    }
+
+    private void removeRecipe(int recipeId) {
+        var partitions = partitionsByRecipe.remove(recipeId);
+        if (partitions == null) {
+            return;
+        }
+
+        allRecipes.remove(recipeId);
+        removeFrom(recipesByServes, partitions.getServes(), recipeId);
+        removeFrom(recipesByVegetarian, partitions.getVegetarian(), recipeId);
+        for (var ingredientId : partitions.getIngredientIds()) {
+            removeFrom(recipesByIngredient, ingredientId, recipeId);
+        }
+    }
+
+    private static <K> void removeFrom(Map<K, RoaringBitmap> postings, K key, int recipeId) {
+        var recipes = postings.get(key);
+        if (recipes != null) {
+            recipes.remove(recipeId);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package nl.abnamro.recipes.index;
+
+import lombok.Value;
+import nl.abnamro.recipes.domain.Ingredient;
+import nl.abnamro.recipes.domain.Recipe;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * The ingredients, serving size and vegetarian flag of one recipe: the
+ * partitions of the catalog whose find results the recipe can change.
+ */
+@Value
+public class RecipePartitions {
+
+    List<Integer> ingredientIds;
+
+    Integer serves;
+
+    Boolean vegetarian;
+
+    public static RecipePartitions of(Recipe recipe) {
+        var ingredientIds = recipe.getIngredients().stream()
+                .map(Ingredient::getIngredientId)
+                .collect(Collectors.toList());
+
+        return new RecipePartitions(ingredientIds, recipe.getServes(), recipe.getVegetarian());
+    }
+}
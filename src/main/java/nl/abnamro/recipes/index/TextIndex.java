@@ -0,0 +1,178 @@
+package nl.abnamro.recipes.index;
+
+import nl.abnamro.recipes.repository.RecipeText;
+import nl.abnamro.recipes.utils.Titles;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Trigram inverted index over recipe titles and instructions. It narrows the
+ * recipes that can contain a text before the database confirms the match with
+ * LIKE. Text is folded to lower case without accents, so the candidates are a
+ * superset of what the case and accent insensitive collation accepts as long
+ * as the folded text is ASCII. Letters that do not fold to ASCII, such as ß
+ * or æ, may expand to two letters in the collation: recipes that contain them
+ * are candidates for every text, and a text that contains them is left to
+ * the database. The trigrams of every recipe are kept next to the postings,
+ * so a recipe is removed from its own postings only, and recipes that are not
+ * in the index yet are added without removing anything first.
+ */
+@Component
+public class TextIndex {
+
+    private static final int GRAM = 3;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<Long, RoaringBitmap> recipesByTrigram = new HashMap<>();
+
+    private final Map<Integer, long[]> trigramsByRecipe = new HashMap<>();
+
+    // Recipes whose folded text is not ASCII, the trigrams cannot rule them out
+    private final RoaringBitmap inexact = new RoaringBitmap();
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            recipesByTrigram.clear();
+            trigramsByRecipe.clear();
+            inexact.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds recipes that are not in the index yet, such as recipes with newly
+     * allocated ids, without removing anything first.
+     */
+    public void add(Iterable<? extends RecipeText> recipes) {
+        lock.writeLock().lock();
+        try {
+            for (var recipe : recipes) {
+                addRecipe(recipe.getRecipeId(), recipe.getTitle(), recipe.getInstructions());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void put(int recipeId, String title, String instructions) {
+        lock.writeLock().lock();
+        try {
+            removeRecipe(recipeId);
+            addRecipe(recipeId, title, instructions);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(int recipeId) {
+        lock.writeLock().lock();
+        try {
+            removeRecipe(recipeId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeAll(RoaringBitmap recipeIds) {
+        lock.writeLock().lock();
+        try {
+            for (int recipeId : recipeIds) {
+                removeRecipe(recipeId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the recipes whose title or instructions contain every trigram of
+     * the text, together with the recipes the trigrams cannot rule out, or null
+     * when the text is too short, or does not fold to ASCII, to be narrowed by
+     * the index.
+     */
+    public RoaringBitmap candidates(String text) {
+        var folded = Titles.fold(text);
+        if (!Titles.isExactFold(folded)) {
+            return null;
+        }
+
+        var trigrams = trigrams(folded);
+        if (trigrams.isEmpty()) {
+            return null;
+        }
+
+        lock.readLock().lock();
+        try {
+            RoaringBitmap result = null;
+
+            for (var trigram : trigrams) {
+                var recipes = recipesByTrigram.get(trigram);
+                if (recipes == null) {
+                    return inexact.clone();
+                }
+
+                result = result == null ? recipes.clone() : RoaringBitmap.and(result, recipes);
+                if (result.isEmpty()) {
+                    break;
+                }
+            }
+
+            return RoaringBitmap.or(result, inexact);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void addRecipe(int recipeId, String title, String instructions) {
+        var foldedTitle = Titles.fold(title);
+        var foldedInstructions = Titles.fold(instructions);
+        if (!Titles.isExactFold(foldedTitle) || !Titles.isExactFold(foldedInstructions)) {
+            inexact.add(recipeId);
+        }
+
+        var trigrams = trigrams(foldedTitle);
+        trigrams.addAll(trigrams(foldedInstructions));
+
+        var own = new long[trigrams.size()];
+        var i = 0;
+        for (var trigram : trigrams) {
+            recipesByTrigram.computeIfAbsent(trigram, k -> new RoaringBitmap()).add(recipeId);
+            own[i++] = trigram;
+        }
+
+        trigramsByRecipe.put(recipeId, own);
+    }
+
+    private void removeRecipe(int recipeId) {
+        var own = trigramsByRecipe.remove(recipeId);
+        if (own != null) {
+            for (var trigram : own) {
+                var recipes = recipesByTrigram.get(trigram);
+                if (recipes != null) {
+                    recipes.remove(recipeId);
+                }
+            }
+        }
+        inexact.remove(recipeId);
+    }
+
+    private static Set<Long> trigrams(String text) {
+        var trigrams = new HashSet<Long>();
+
+        for (int i = 0; i + GRAM <= text.length(); i++) {
+            trigrams.add(((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2));
+        }
+
+        return trigrams;
+    }
+}
@@ -0,0 +1,75 @@
+package nl.abnamro.recipes.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters of the recipe search and of the requests. Tags are bounded: the
+ * predicate shape has 32 values and endpoints are route patterns. Meters are
+ * registered once per tag values and kept, so recording allocates nothing.
+ */
+@Component
+public class RecipeMetrics {
+
+    private final MeterRegistry registry;
+
+    private final Map<String, Timer> findHits = new ConcurrentHashMap<>();
+
+    private final Map<String, Timer> findMisses = new ConcurrentHashMap<>();
+
+    private final Map<String, DistributionSummary> findRows = new ConcurrentHashMap<>();
+
+    private final Map<String, Timer> phases = new ConcurrentHashMap<>();
+
+    // By method, then by route pattern
+    private final Map<String, Map<String, DistributionSummary>> requestStatements = new ConcurrentHashMap<>();
+
+    public RecipeMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public void find(String shape, boolean cached, long nanos, int rows) {
+        var timers = cached ? findHits : findMisses;
+        timers.computeIfAbsent(shape, key -> Timer.builder("recipes.find")
+                        .description("Time of the find calls of RecipeService")
+                        .tag("shape", key)
+                        .tag("cache", cached ? "hit" : "miss")
+                        .publishPercentileHistogram()
+                        .register(registry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+
+        findRows.computeIfAbsent(shape, key -> DistributionSummary.builder("recipes.find.rows")
+                        .description("Recipes returned by the find calls")
+                        .tag("shape", key)
+                        .register(registry))
+                .record(rows);
+    }
+
+    /**
+     * Records the time the repository spent in one phase of a find: reading
+     * from the database ("query") or building the DTOs from the rows ("mapping").
+     */
+    public void phase(String phase, long nanos) {
+        phases.computeIfAbsent(phase, key -> Timer.builder("recipes.find.phase")
+                        .description("Time of the find calls of the repository per phase")
+                        .tag("phase", key)
+                        .register(registry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void request(String method, String uri, int statements) {
+        requestStatements.computeIfAbsent(method, key -> new ConcurrentHashMap<>())
+                .computeIfAbsent(uri, key -> DistributionSummary.builder("recipes.request.statements")
+                        .description("JDBC statements prepared per request")
+                        .tag("method", method)
+                        .tag("uri", key)
+                        .register(registry))
+                .record(statements);
+    }
+}
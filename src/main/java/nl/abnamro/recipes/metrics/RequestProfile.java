@@ -0,0 +1,141 @@
+package nl.abnamro.recipes.metrics;
+
+/**
+ * What the current request did so far: the JDBC statements it prepared and
+ * the time it spent querying and mapping rows. There is one instance per
+ * thread, reused by every request, so profiling does not allocate. Only the
+ * first statements are kept, the count covers all of them.
+ */
+public final class RequestProfile {
+
+    public static final int MAX_STATEMENTS = 16;
+
+    private static final ThreadLocal<RequestProfile> CURRENT = ThreadLocal.withInitial(RequestProfile::new);
+
+    private final String[] statements = new String[MAX_STATEMENTS];
+
+    private boolean active;
+
+    private int statementCount;
+
+    private int rows;
+
+    private long queryNanos;
+
+    private long mappingNanos;
+
+    private long startNanos;
+
+    private long serializationStartNanos;
+
+    private String operation;
+
+    private Object parameters;
+
+    private RequestProfile() {
+    }
+
+    public static RequestProfile current() {
+        return CURRENT.get();
+    }
+
+    public void start() {
+        active = true;
+        statementCount = 0;
+        rows = 0;
+        queryNanos = 0;
+        mappingNanos = 0;
+        serializationStartNanos = 0;
+        operation = null;
+        parameters = null;
+        startNanos = System.nanoTime();
+    }
+
+    public void stop() {
+        active = false;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public void statement(String sql) {
+        if (!active) {
+            return;
+        }
+
+        if (statementCount < MAX_STATEMENTS) {
+            statements[statementCount] = sql;
+        }
+        statementCount++;
+    }
+
+    /**
+     * Names what the request does, "find" or "write", with its normalized
+     * parameters. Only such requests are candidates for the slow query recorder.
+     */
+    public void operation(String operation, Object parameters) {
+        this.operation = operation;
+        this.parameters = parameters;
+    }
+
+    public void serializing() {
+        serializationStartNanos = System.nanoTime();
+    }
+
+    public void rows(int count) {
+        rows += count;
+    }
+
+    public void query(long nanos) {
+        queryNanos += nanos;
+    }
+
+    public void mapping(long nanos) {
+        mappingNanos += nanos;
+    }
+
+    public int getStatementCount() {
+        return statementCount;
+    }
+
+    /**
+     * Returns the SQL of the kept statement, or null for statements created
+     * without SQL.
+     */
+    public String getStatement(int index) {
+        return statements[index];
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public long getQueryNanos() {
+        return queryNanos;
+    }
+
+    public long getMappingNanos() {
+        return mappingNanos;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public Object getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Returns the time spent writing the response body so far, or 0 when the
+     * body was not written by a message converter.
+     */
+    public long getSerializationNanos() {
+        return serializationStartNanos == 0 ? 0 : System.nanoTime() - serializationStartNanos;
+    }
+
+    public long getElapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+}
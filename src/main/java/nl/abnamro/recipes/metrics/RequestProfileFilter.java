@@ -0,0 +1,46 @@
+package nl.abnamro.recipes.metrics;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Profiles every request, records the statements it prepared per endpoint
+ * and offers it to the slow query recorder. Latency histograms per endpoint
+ * come from the http.server.requests timer of Spring Boot.
+ */
+@Component
+public class RequestProfileFilter extends OncePerRequestFilter {
+
+    @Autowired
+    private RecipeMetrics metrics;
+
+    @Autowired
+    private SlowQueryRecorder slowQueryRecorder;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+
+        var profile = RequestProfile.current();
+        profile.start();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            profile.stop();
+
+            var pattern = (String) request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            if (pattern != null) {
+                metrics.request(request.getMethod(), pattern, profile.getStatementCount());
+                slowQueryRecorder.record(profile, request.getMethod(), pattern, profile.getElapsedNanos());
+            }
+        }
+    }
+}
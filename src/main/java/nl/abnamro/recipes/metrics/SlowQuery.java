@@ -0,0 +1,39 @@
+package nl.abnamro.recipes.metrics;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * One request kept by the slow query recorder. Durations are in microseconds.
+ */
+@AllArgsConstructor
+@Data
+@NoArgsConstructor
+public class SlowQuery {
+
+    private Instant time;
+
+    private String operation;
+
+    private String endpoint;
+
+    private String parameters;
+
+    private long totalMicros;
+
+    private long queryMicros;
+
+    private long mappingMicros;
+
+    private long serializationMicros;
+
+    private int rows;
+
+    private int statementCount;
+
+    private List<String> statements;
+}
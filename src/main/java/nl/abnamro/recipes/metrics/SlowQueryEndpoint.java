@@ -0,0 +1,33 @@
+package nl.abnamro.recipes.metrics;
+
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Admin endpoint listing the slowest find and write requests, at
+ * /actuator/slowqueries. A DELETE empties the recorder.
+ */
+@Component
+@Endpoint(id = "slowqueries")
+public class SlowQueryEndpoint {
+
+    private final SlowQueryRecorder recorder;
+
+    public SlowQueryEndpoint(SlowQueryRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    @ReadOperation
+    public List<SlowQuery> slowest() {
+        return recorder.slowest();
+    }
+
+    @DeleteOperation
+    public void clear() {
+        recorder.clear();
+    }
+}
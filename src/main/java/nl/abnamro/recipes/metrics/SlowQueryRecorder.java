@@ -0,0 +1,131 @@
+package nl.abnamro.recipes.metrics;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the slowest find and write requests in a fixed number of slots. A
+ * request that is not slower than the fastest one kept is rejected by reading
+ * one volatile field, without allocating. Slower requests replace the fastest
+ * kept one with a compare-and-set, so recording never takes a lock.
+ */
+@Component
+public class SlowQueryRecorder {
+
+    private final AtomicReferenceArray<SlowQuery> slots;
+
+    private final long minNanos;
+
+    /**
+     * Duration a request must exceed to be recorded. It is the fastest kept
+     * duration once the slots are full. Races can only leave it lower than
+     * that, which costs a wasted attempt but never loses a slow request.
+     */
+    private volatile long thresholdNanos;
+
+    public SlowQueryRecorder(@Value("${recipes.slow-queries.size:32}") int size,
+                             @Value("${recipes.slow-queries.min-duration:200ms}") Duration minDuration) {
+        slots = new AtomicReferenceArray<>(size);
+        minNanos = minDuration.toNanos();
+        thresholdNanos = minNanos;
+    }
+
+    public void record(RequestProfile profile, String method, String path, long totalNanos) {
+        if (profile.getOperation() == null || totalNanos <= thresholdNanos) {
+            return;
+        }
+
+        var statements = new ArrayList<String>(Math.min(profile.getStatementCount(), RequestProfile.MAX_STATEMENTS));
+        for (int i = 0; i < profile.getStatementCount() && i < RequestProfile.MAX_STATEMENTS; i++) {
+            statements.add(profile.getStatement(i));
+        }
+
+        var parameters = profile.getParameters();
+        var entry = new SlowQuery(
+                Instant.now(),
+                profile.getOperation(),
+                method + " " + path,
+                parameters == null ? null : parameters.toString(),
+                micros(totalNanos),
+                micros(profile.getQueryNanos()),
+                micros(profile.getMappingNanos()),
+                micros(profile.getSerializationNanos()),
+                profile.getRows(),
+                profile.getStatementCount(),
+                statements);
+
+        while (true) {
+            int victim = -1;
+            SlowQuery victimEntry = null;
+            long victimMicros = Long.MAX_VALUE;
+
+            for (int i = 0; i < slots.length(); i++) {
+                var kept = slots.get(i);
+                var keptMicros = kept == null ? -1 : kept.getTotalMicros();
+
+                if (keptMicros < victimMicros) {
+                    victim = i;
+                    victimEntry = kept;
+                    victimMicros = keptMicros;
+                }
+            }
+
+            if (victimMicros >= entry.getTotalMicros()) {
+                return;
+            }
+
+            if (slots.compareAndSet(victim, victimEntry, entry)) {
+                updateThreshold();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the kept requests, slowest first.
+     */
+    public List<SlowQuery> slowest() {
+        var kept = new ArrayList<SlowQuery>(slots.length());
+        for (int i = 0; i < slots.length(); i++) {
+            var entry = slots.get(i);
+            if (entry != null) {
+                kept.add(entry);
+            }
+        }
+
+        kept.sort(Comparator.comparingLong(SlowQuery::getTotalMicros).reversed());
+        return kept;
+    }
+
+    public void clear() {
+        for (int i = 0; i < slots.length(); i++) {
+            slots.set(i, null);
+        }
+        thresholdNanos = minNanos;
+    }
+
+    private void updateThreshold() {
+        long fastest = Long.MAX_VALUE;
+        for (int i = 0; i < slots.length(); i++) {
+            var entry = slots.get(i);
+            if (entry == null) {
+                return;
+            }
+            fastest = Math.min(fastest, TimeUnit.MICROSECONDS.toNanos(entry.getTotalMicros()));
+        }
+
+        thresholdNanos = Math.max(minNanos, fastest);
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,7 @@
+package nl.abnamro.recipes.repository;
+
+import java.util.Collection;
+
+public interface CustomIngredientRepository {
+    void insertTitles(Collection<String> titles);
+}
@@ -0,0 +1,59 @@
+package nl.abnamro.recipes.repository;
+
+import nl.abnamro.recipes.domain.Ingredient;
+import nl.abnamro.recipes.id.IdAllocator;
+import nl.abnamro.recipes.utils.Titles;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+
+@Repository
+public class CustomIngredientRepositoryImpl implements CustomIngredientRepository {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private IdAllocator idAllocator;
+
+    private TransactionTemplate transaction;
+
+    @Autowired
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        transaction = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Inserts the titles that do not exist yet with one JDBC batch, with ids
+     * allocated from the id blocks of Ingredient. Titles that already exist,
+     * or that a concurrent writer inserts first, are left as they are by the
+     * no-op update, so the caller only has to look all the titles up
+     * afterwards. Unlike INSERT IGNORE, it still fails on any other error,
+     * such as a title that does not fit the column. The rows
+     * are inserted in title order, so concurrent batches lock the unique title
+     * index in the same order and cannot deadlock on it. The ids are allocated
+     * before the transaction starts, so no connection is held meanwhile.
+     */
+    @Override
+    public void insertTitles(Collection<String> titles) {
+        var sorted = new ArrayList<>(titles);
+        sorted.sort(Comparator.comparing(Titles::normalize));
+
+        var ids = idAllocator.next(Ingredient.class, sorted.size());
+
+        var rows = new ArrayList<Object[]>(sorted.size());
+        for (var title : sorted) {
+            rows.add(new Object[] { ids[rows.size()], title });
+        }
+
+        transaction.executeWithoutResult(status -> jdbcTemplate.batchUpdate(
+                "INSERT INTO ingredient (ingredient_id, title) VALUES (?, ?) "
+                        + "ON DUPLICATE KEY UPDATE ingredient_id = ingredient_id", rows));
+    }
+}
@@ -1,8 +1,24 @@
 package nl.abnamro.recipes.repository;
 
 import nl.abnamro.recipes.domain.Recipe;
+import nl.abnamro.recipes.dto.RecipeDto;
+import nl.abnamro.recipes.dto.RecipeFilter;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface CustomRecipeRepository {
-    List<Recipe> find(String text, String include, String exclude, Integer servings, Boolean vegetarian);
+    List<RecipeDto> find(RecipeFilter filter, Integer after, int limit);
+
+    void stream(RecipeFilter filter, Integer after, int fetchSize, Consumer<RecipeDto> action);
+
+    RoaringBitmap findIds(RecipeFilter filter, int fetchSize);
+
+    void insertAll(List<Recipe> recipes);
+
+    int update(Recipe recipe);
+
+    int deleteRecipes(Collection<Integer> recipeIds);
 }
@@ -2,77 +2,517 @@ package nl.abnamro.recipes.repository;
 
 import nl.abnamro.recipes.domain.Ingredient;
 import nl.abnamro.recipes.domain.Recipe;
+import nl.abnamro.recipes.dto.RecipeDto;
+import nl.abnamro.recipes.dto.RecipeFilter;
+import nl.abnamro.recipes.id.IdAllocator;
+import nl.abnamro.recipes.index.IngredientDictionary;
+import nl.abnamro.recipes.index.RecipeIndex;
+import nl.abnamro.recipes.index.TextIndex;
+import nl.abnamro.recipes.metrics.RecipeMetrics;
+import nl.abnamro.recipes.metrics.RequestProfile;
+import org.hibernate.ScrollMode;
+import org.roaringbitmap.RoaringBitmap;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.persistence.EntityManager;
 import javax.persistence.TypedQuery;
-import javax.persistence.criteria.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 @Repository
 public class CustomRecipeRepositoryImpl implements CustomRecipeRepository {
 
+    private static final int IN_CHUNK_SIZE = 1000;
+
+    /**
+     * Candidate lists up to this size are bound as parameters; Hibernate pads
+     * them to the next power of two so few distinct statements are prepared.
+     */
+    private static final int MAX_BOUND_CANDIDATES = 1024;
+
+    private static final char LIKE_ESCAPE = '!';
+
+    private static final String LINKED_INGREDIENTS = "select i.ingredientId from Recipe l join l.ingredients i "
+            + "where l.recipeId = r.recipeId";
+
+    // Predicate shapes, one bit per kind of condition
+    private static final int TEXT = 1;
+    private static final int CANDIDATES = 1 << 1;
+    private static final int INCLUDE_ANY = 1 << 2;
+    private static final int INCLUDE_ALL = 1 << 3;
+    private static final int EXCLUDE = 1 << 4;
+    private static final int AFTER = 1 << 5;
+    private static final int SERVINGS = 1 << 6;
+    private static final int VEGETARIAN = 1 << 7;
+
+    private final Map<Integer, String> compiledQueries = new ConcurrentHashMap<>();
+
     @Autowired
     private EntityManager em;
 
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private NamedParameterJdbcTemplate namedJdbcTemplate;
+
+    @Autowired
+    private IngredientDictionary ingredientDictionary;
+
+    @Autowired
+    private IdAllocator idAllocator;
+
+    @Autowired
+    private RecipeIndex recipeIndex;
+
+    @Autowired
+    private TextIndex textIndex;
+
+    @Autowired
+    private RecipeMetrics metrics;
+
+    private TransactionTemplate transaction;
+
+    @Autowired
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        transaction = new TransactionTemplate(transactionManager);
+    }
+
+    @Override
+    public List<RecipeDto> find(RecipeFilter filter, Integer after, int limit) {
+        var query = createIdQuery(filter, after);
+        if (query == null) {
+            return new ArrayList<>();
+        }
+
+        var start = System.nanoTime();
+        query.setMaxResults(limit);
+        var ids = query.getResultList();
+        recordQuery(System.nanoTime() - start);
+
+        return project(ids);
+    }
+
     @Override
-    public List<Recipe> find(String text, String include, String exclude, Integer servings, Boolean vegetarian) {
+    public void stream(RecipeFilter filter, Integer after, int fetchSize, Consumer<RecipeDto> action) {
+        var query = createIdQuery(filter, after);
+        if (query == null) {
+            return;
+        }
+
+        var rows = query.unwrap(org.hibernate.query.Query.class)
+                .setFetchSize(fetchSize)
+                .scroll(ScrollMode.FORWARD_ONLY);
 
-        CriteriaBuilder cb = em.getCriteriaBuilder();
+        try (rows) {
+            var ids = new ArrayList<Integer>(fetchSize);
+            while (rows.next()) {
+                ids.add((Integer) rows.get(0));
 
-        CriteriaQuery<Recipe> cq = cb.createQuery(Recipe.class);
-        Root<Recipe> recipe = cq.from(Recipe.class);
+                if (ids.size() == fetchSize) {
+                    project(ids).forEach(action);
+                    ids.clear();
+                }
+            }
 
-        List<Predicate> predicatesAnd = new ArrayList<Predicate>();
+            project(ids).forEach(action);
+        }
+    }
 
-        if (text != null && !text.isEmpty()) {
-            Predicate titlePredicate = cb.like(recipe.get("title"), "%" + text + "%");
-            Predicate instructionsPredicate = cb.like(recipe.get("instructions"), "%" + text + "%");
+    /**
+     * Reads only the ids of the matching recipes, from a cursor, into a bitmap.
+     */
+    @Override
+    public RoaringBitmap findIds(RecipeFilter filter, int fetchSize) {
+        var ids = new RoaringBitmap();
 
-            predicatesAnd.add(cb.or(titlePredicate, instructionsPredicate));
+        var query = createIdQuery(filter, null);
+        if (query == null) {
+            return ids;
         }
 
-        if (include != null && !include.isEmpty()) {
-            Subquery<Ingredient> subQuery = cq.subquery(Ingredient.class);
-            Root<Recipe> rec = subQuery.from(Recipe.class);
+        var rows = query.unwrap(org.hibernate.query.Query.class)
+                .setFetchSize(fetchSize)
+                .scroll(ScrollMode.FORWARD_ONLY);
+
+        try (rows) {
+            while (rows.next()) {
+                ids.add((Integer) rows.get(0));
+            }
+        }
 
-            Join<Recipe, Ingredient> setJoin = rec.join("ingredients");
-            subQuery.where(cb.like(setJoin.get("title"), include));
-            subQuery.select(rec.get("recipeId"));
+        return ids;
+    }
 
-            predicatesAnd.add(cb.in(recipe.get("recipeId")).value(subQuery));
+    /**
+     * Writes the recipes and their ingredient links with JDBC batches in a single
+     * transaction. The ids are allocated up front from the id blocks of Recipe
+     * and set on the given recipes, before the transaction starts, so no
+     * connection is held meanwhile.
+     */
+    @Override
+    public void insertAll(List<Recipe> recipes) {
+        var ids = idAllocator.next(Recipe.class, recipes.size());
+        for (int i = 0; i < recipes.size(); i++) {
+            recipes.get(i).setRecipeId(ids[i]);
         }
 
-        if (exclude != null && !exclude.isEmpty()) {
-            Subquery<Ingredient> subQuery = cq.subquery(Ingredient.class);
-            Root<Recipe> rec = subQuery.from(Recipe.class);
+        transaction.executeWithoutResult(status -> writeAll(recipes));
+    }
+
+    private void writeAll(List<Recipe> recipes) {
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO recipe (recipe_id, title, instructions, serves, vegetarian) VALUES (?, ?, ?, ?, ?)",
+                recipes, recipes.size(), (ps, recipe) -> {
+                    ps.setInt(1, recipe.getRecipeId());
+                    ps.setString(2, recipe.getTitle());
+                    ps.setString(3, recipe.getInstructions());
+                    ps.setInt(4, recipe.getServes());
+                    ps.setBoolean(5, recipe.getVegetarian());
+                });
+
+        var links = new ArrayList<Object[]>();
+        for (var recipe : recipes) {
+            for (var ingredient : recipe.getIngredients()) {
+                links.add(new Object[] { recipe.getRecipeId(), ingredient.getIngredientId() });
+            }
+        }
+
+        jdbcTemplate.batchUpdate("INSERT INTO recipe_ingredient (recipe_id, ingredient_id) VALUES (?, ?)", links);
+    }
+
+    /**
+     * Deletes the recipes and their ingredient links by id, with one statement
+     * per table and without loading them. Returns the number of deleted recipes.
+     */
+    @Override
+    @Transactional
+    public int deleteRecipes(Collection<Integer> recipeIds) {
+        var ids = Map.of("ids", recipeIds);
+
+        namedJdbcTemplate.update("DELETE FROM recipe_ingredient WHERE recipe_id IN (:ids)", ids);
+        return namedJdbcTemplate.update("DELETE FROM recipe WHERE recipe_id IN (:ids)", ids);
+    }
 
-            Join<Recipe, Ingredient> setJoin = rec.join("ingredients");
-            subQuery.where(cb.like(setJoin.get("title"), exclude));
-            subQuery.select(rec.get("recipeId"));
+    /**
+     * Updates the recipe columns with a single statement and its ingredient
+     * links, without loading the recipe first. When the recipe
+     * carries a version, the update only applies to that version. Returns the
+     * number of updated recipes; on success the version of the recipe is set
+     * to the new one.
+     */
+    @Override
+    @Transactional
+    public int update(Recipe recipe) {
+        var sql = "UPDATE recipe SET title = ?, instructions = ?, serves = ?, vegetarian = ?, version = version + 1 "
+                + "WHERE recipe_id = ?";
+        var args = new ArrayList<Object>(List.of(recipe.getTitle(), recipe.getInstructions(), recipe.getServes(),
+                recipe.getVegetarian(), recipe.getRecipeId()));
 
-            predicatesAnd.add(cb.in(recipe.get("recipeId")).value(subQuery).not());
+        if (recipe.getVersion() != null) {
+            sql += " AND version = ?";
+            args.add(recipe.getVersion());
         }
 
-        if (servings != null) {
-            Predicate servingsPredicate = cb.equal(recipe.get("serves"), servings);
+        var updated = jdbcTemplate.update(sql, args.toArray());
+        if (updated == 0) {
+            return 0;
+        }
 
-            predicatesAnd.add(servingsPredicate);
+        if (recipe.getVersion() != null) {
+            recipe.setVersion(recipe.getVersion() + 1);
+        } else {
+            recipe.setVersion(jdbcTemplate.queryForObject("SELECT version FROM recipe WHERE recipe_id = ?",
+                    Integer.class, recipe.getRecipeId()));
         }
 
-        if (vegetarian != null) {
-            Predicate vegetarianPredicate = cb.equal(recipe.get("vegetarian"), vegetarian);
+        updateLinks(recipe);
+
+        return updated;
+    }
 
-            predicatesAnd.add(vegetarianPredicate);
+    /**
+     * Writes only the difference between the stored ingredient links of the
+     * recipe and its new ingredients: one delete for the removed ones and one
+     * batch of inserts for the added ones. The links are read after the recipe
+     * row was updated, so concurrent updates of the recipe wait for each other.
+     */
+    private void updateLinks(Recipe recipe) {
+        var removed = new HashSet<>(jdbcTemplate.queryForList(
+                "SELECT ingredient_id FROM recipe_ingredient WHERE recipe_id = ?", Integer.class,
+                recipe.getRecipeId()));
+
+        var added = new ArrayList<Object[]>();
+        for (var ingredient : recipe.getIngredients()) {
+            if (!removed.remove(ingredient.getIngredientId())) {
+                added.add(new Object[] { recipe.getRecipeId(), ingredient.getIngredientId() });
+            }
         }
 
-        cq.where(predicatesAnd.toArray(Predicate[]::new));
+        if (!removed.isEmpty()) {
+            namedJdbcTemplate.update(
+                    "DELETE FROM recipe_ingredient WHERE recipe_id = :recipeId AND ingredient_id IN (:ingredientIds)",
+                    Map.of("recipeId", recipe.getRecipeId(), "ingredientIds", removed));
+        }
 
-        TypedQuery<Recipe> query = em.createQuery(cq);
-        return query.getResultList();
+        if (!added.isEmpty()) {
+            jdbcTemplate.batchUpdate("INSERT INTO recipe_ingredient (recipe_id, ingredient_id) VALUES (?, ?)", added);
+        }
     }
-}
 
+    /**
+     * Reads the recipes straight into DTOs, without managed entities. Per chunk of
+     * ids one query reads the recipe columns and one reads the ingredient ids from
+     * the join table, which are turned into the canonical titles of the ingredient
+     * dictionary and grouped by recipe id.
+     */
+    private List<RecipeDto> project(List<Integer> ids) {
+        var recipes = new ArrayList<RecipeDto>(ids.size());
+        long queryNanos = 0;
+        long mappingNanos = 0;
+
+        for (int from = 0; from < ids.size(); from += IN_CHUNK_SIZE) {
+            var chunk = ids.subList(from, Math.min(from + IN_CHUNK_SIZE, ids.size()));
+            var byId = new HashMap<Integer, RecipeDto>(chunk.size() * 2);
+
+            var start = System.nanoTime();
+            var rows = em.createQuery("select r.recipeId, r.title, r.instructions, r.serves, r.vegetarian, "
+                            + "r.version from Recipe r where r.recipeId in :ids order by r.recipeId", Object[].class)
+                    .setParameter("ids", chunk)
+                    .getResultList();
+            var fetched = System.nanoTime();
+            queryNanos += fetched - start;
+
+            for (var row : rows) {
+                var recipe = RecipeDto.builder()
+                        .recipeId((Integer) row[0])
+                        .title((String) row[1])
+                        .instructions((String) row[2])
+                        .serves((Integer) row[3])
+                        .vegetarian((Boolean) row[4])
+                        .version((Integer) row[5])
+                        .ingredients(new ArrayList<>())
+                        .build();
 
+                recipes.add(recipe);
+                byId.put(recipe.getRecipeId(), recipe);
+            }
+
+            var mapped = System.nanoTime();
+            mappingNanos += mapped - fetched;
+
+            var links = new ArrayList<int[]>();
+            var unknown = new ArrayList<Integer>();
+            namedJdbcTemplate.query("SELECT recipe_id, ingredient_id FROM recipe_ingredient WHERE recipe_id IN (:ids)",
+                    Map.of("ids", chunk), (RowCallbackHandler) rs -> {
+                        var link = new int[] { rs.getInt(1), rs.getInt(2) };
+                        if (ingredientDictionary.titleOf(link[1]) == null) {
+                            unknown.add(link[1]);
+                        }
+                        links.add(link);
+                    });
+
+            if (!unknown.isEmpty()) {
+                // Created behind the service, e.g. by another instance
+                ingredientDictionary.putAll(em.createQuery(
+                                "select i from Ingredient i where i.ingredientId in :ids", Ingredient.class)
+                        .setParameter("ids", unknown)
+                        .getResultList());
+            }
+
+            var linked = System.nanoTime();
+            queryNanos += linked - mapped;
+
+            for (var link : links) {
+                byId.get(link[0]).getIngredients().add(ingredientDictionary.titleOf(link[1]));
+            }
+            mappingNanos += System.nanoTime() - linked;
+        }
+
+        recordQuery(queryNanos);
+        metrics.phase("mapping", mappingNanos);
+        RequestProfile.current().mapping(mappingNanos);
+
+        return recipes;
+    }
+
+    private void recordQuery(long nanos) {
+        metrics.phase("query", nanos);
+        RequestProfile.current().query(nanos);
+    }
+
+    /**
+     * Builds the filtered query for the ids of the matching recipes, ordered by
+     * id, or returns null when the indexes already show that nothing can match.
+     * The indexes narrow the candidates first; when few enough remain they are
+     * bound as one list, otherwise the ingredient filters run in the database.
+     */
+    private TypedQuery<Integer> createIdQuery(RecipeFilter filter, Integer after) {
+        var shape = 0;
+        var parameters = new HashMap<String, Object>();
+        RoaringBitmap candidates = null;
+
+        var text = filter.getText();
+        if (text != null) {
+            shape |= TEXT;
+            parameters.put("text", containing(text));
+            candidates = textIndex.candidates(text);
+        }
+
+        if (!filter.getInclude().isEmpty()) {
+            var included = filter.getIncludeMatch() == RecipeFilter.Match.ALL
+                    ? recipeIndex.recipesWithAll(filter.getInclude())
+                    : recipeIndex.recipesWithAny(filter.getInclude());
+            candidates = candidates == null ? included : RoaringBitmap.and(candidates, included);
+        }
+
+        if (!filter.getExclude().isEmpty() && candidates != null) {
+            candidates.andNot(recipeIndex.recipesWithAny(filter.getExclude()));
+        }
+
+        if (after != null) {
+            shape |= AFTER;
+            parameters.put("after", after);
+
+            if (candidates != null) {
+                candidates.remove(0L, Math.max(0L, after + 1L));
+            }
+        }
+
+        if (candidates != null && candidates.isEmpty()) {
+            return null;
+        }
+
+        if (candidates != null && candidates.getLongCardinality() <= MAX_BOUND_CANDIDATES) {
+            shape |= CANDIDATES;
+            parameters.put("candidates", toList(candidates));
+        } else {
+            if (!filter.getInclude().isEmpty()) {
+                var all = filter.getIncludeMatch() == RecipeFilter.Match.ALL;
+                var included = ingredientIds(filter.getInclude());
+
+                shape |= all ? INCLUDE_ALL : INCLUDE_ANY;
+                parameters.put("include", included);
+                if (all) {
+                    parameters.put("includeCount", (long) included.size());
+                }
+            }
+
+            var excluded = ingredientIds(filter.getExclude());
+            if (!excluded.isEmpty()) {
+                shape |= EXCLUDE;
+                parameters.put("exclude", excluded);
+            }
+        }
+
+        if (filter.getServings() != null) {
+            shape |= SERVINGS;
+            parameters.put("servings", filter.getServings());
+        }
+
+        if (filter.getVegetarian() != null) {
+            shape |= VEGETARIAN;
+            parameters.put("vegetarian", filter.getVegetarian());
+        }
+
+        var query = em.createQuery(compiledQueries.computeIfAbsent(shape, CustomRecipeRepositoryImpl::compile),
+                Integer.class);
+        parameters.forEach(query::setParameter);
+
+        return query;
+    }
+
+    /**
+     * Renders the JPQL of one predicate shape. Every value is a parameter, so
+     * each shape has a single query string: Hibernate parses it once and the
+     * driver can reuse its prepared statement.
+     */
+    private static String compile(int shape) {
+        var where = new StringJoiner(" and ", " where ", "").setEmptyValue("");
+
+        if ((shape & TEXT) != 0) {
+            where.add("(r.title like :text escape '!' or r.instructions like :text escape '!')");
+        }
+        if ((shape & CANDIDATES) != 0) {
+            where.add("r.recipeId in :candidates");
+        }
+        if ((shape & INCLUDE_ANY) != 0) {
+            where.add("exists (" + LINKED_INGREDIENTS + " and i.ingredientId in :include)");
+        }
+        if ((shape & INCLUDE_ALL) != 0) {
+            where.add(":includeCount = (" + LINKED_INGREDIENTS.replace("i.ingredientId", "count(i)")
+                    + " and i.ingredientId in :include)");
+        }
+        if ((shape & EXCLUDE) != 0) {
+            where.add("not exists (" + LINKED_INGREDIENTS + " and i.ingredientId in :exclude)");
+        }
+        if ((shape & AFTER) != 0) {
+            where.add("r.recipeId > :after");
+        }
+        if ((shape & SERVINGS) != 0) {
+            where.add("r.serves = :servings");
+        }
+        if ((shape & VEGETARIAN) != 0) {
+            where.add("r.vegetarian = :vegetarian");
+        }
+
+        return "select r.recipeId from Recipe r" + where + " order by r.recipeId";
+    }
+
+    /**
+     * Returns a LIKE pattern that matches the text anywhere, with the wildcards
+     * of the text itself escaped so they only match themselves.
+     */
+    private static String containing(String text) {
+        var pattern = new StringBuilder(text.length() + 2).append('%');
+
+        for (int i = 0; i < text.length(); i++) {
+            var c = text.charAt(i);
+            if (c == '%' || c == '_' || c == LIKE_ESCAPE) {
+                pattern.append(LIKE_ESCAPE);
+            }
+            pattern.append(c);
+        }
+
+        return pattern.append('%').toString();
+    }
+
+    /**
+     * Returns the distinct ids of the known ingredients among the titles. Titles
+     * the collation considers equal resolve to the same id, which must count
+     * once against the ingredients a recipe uses.
+     */
+    private List<Integer> ingredientIds(Collection<String> titles) {
+        var ids = new LinkedHashSet<Integer>(titles.size());
+
+        for (var title : titles) {
+            var ingredientId = ingredientDictionary.idOf(title);
+            if (ingredientId != null) {
+                ids.add(ingredientId);
+            }
+        }
+
+        return new ArrayList<>(ids);
+    }
+
+    private static List<Integer> toList(RoaringBitmap ids) {
+        var list = new ArrayList<Integer>(ids.getCardinality());
+        ids.forEach((org.roaringbitmap.IntConsumer) list::add);
+        return list;
+    }
+}
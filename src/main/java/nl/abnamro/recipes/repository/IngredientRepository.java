@@ -2,9 +2,14 @@ package nl.abnamro.recipes.repository;
 
 import nl.abnamro.recipes.domain.Ingredient;
 import org.springframework.data.repository.CrudRepository;
+
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
-public interface IngredientRepository extends CrudRepository<Ingredient, Integer> {
+public interface IngredientRepository extends CrudRepository<Ingredient, Integer>, CustomIngredientRepository {
 
     Optional<Ingredient> findByTitle(String title);
+
+    List<Ingredient> findByTitleIn(Collection<String> titles);
 }
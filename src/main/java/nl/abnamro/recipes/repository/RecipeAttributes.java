@@ -0,0 +1,11 @@
+package nl.abnamro.recipes.repository;
+
+public interface RecipeAttributes {
+    Integer getRecipeId();
+
+    Integer getServes();
+
+    Boolean getVegetarian();
+
+    Integer getVersion();
+}
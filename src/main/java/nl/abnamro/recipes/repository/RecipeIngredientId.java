@@ -0,0 +1,7 @@
+package nl.abnamro.recipes.repository;
+
+public interface RecipeIngredientId {
+    Integer getRecipeId();
+
+    Integer getIngredientId();
+}
@@ -1,10 +1,26 @@
 package nl.abnamro.recipes.repository;
 
 import nl.abnamro.recipes.domain.Recipe;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 public interface RecipeRepository extends CrudRepository<Recipe, Integer> , CustomRecipeRepository{
     Optional<Recipe> findByTitle(String title);
+
+    @Query("select r.recipeId as recipeId, i.ingredientId as ingredientId from Recipe r join r.ingredients i")
+    List<RecipeIngredientId> findAllIngredientIds();
+
+    @Query("select r.recipeId as recipeId, r.serves as serves, r.vegetarian as vegetarian, r.version as version "
+            + "from Recipe r")
+    List<RecipeAttributes> findAllAttributes();
+
+    @Query("select r.title from Recipe r where r.title in :titles")
+    List<String> findTitlesIn(Collection<String> titles);
+
+    List<RecipeText> findByRecipeIdGreaterThanOrderByRecipeId(Integer recipeId, Pageable pageable);
 }
@@ -0,0 +1,9 @@
+package nl.abnamro.recipes.repository;
+
+public interface RecipeText {
+    Integer getRecipeId();
+
+    String getTitle();
+
+    String getInstructions();
+}
@@ -0,0 +1,178 @@
+package nl.abnamro.recipes.service;
+
+import nl.abnamro.recipes.domain.Ingredient;
+import nl.abnamro.recipes.dto.ErrorDto;
+import nl.abnamro.recipes.index.IngredientDictionary;
+import nl.abnamro.recipes.repository.IngredientRepository;
+import nl.abnamro.recipes.service.exception.ConflictException;
+import nl.abnamro.recipes.utils.Errors;
+import nl.abnamro.recipes.utils.Titles;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Service
+public class IngredientService {
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    // Creations in progress, by normalized title
+    private final Map<String, CompletableFuture<Ingredient>> creating = new ConcurrentHashMap<>();
+
+    @Autowired
+    private IngredientRepository ingredientRepository;
+
+    @Autowired
+    private IngredientDictionary ingredientDictionary;
+
+    /**
+     * Resolves the titles to ingredients from the ingredient dictionary. Titles
+     * are matched case-insensitively and duplicates are returned once, in the
+     * order of the first occurrence. Titles the collation of ingredient.title
+     * also considers equal, such as accent variants, resolve to the same
+     * ingredient at each of their positions. The returned ingredients are
+     * detached and carry the canonical titles.
+     * <p>
+     * Titles the dictionary does not know are created. Each title is created
+     * by one caller at a time: the first one to claim it inserts it, together
+     * with the other titles it claimed, and callers that need the same title
+     * meanwhile wait for that insert instead of running their own. Callers
+     * with different titles never wait for each other. The insert skips
+     * titles that already exist in the database, for instance when another
+     * instance of the service created them, and the titles are then looked up.
+     */
+    public List<Ingredient> getOrCreate(Collection<String> titles) {
+        var requested = new LinkedHashMap<String, String>();
+        for (var title : titles) {
+            requested.putIfAbsent(Titles.normalize(title), title);
+        }
+
+        var found = new HashMap<String, Ingredient>();
+        for (int attempt = 1; ; attempt++) {
+            var claimed = new LinkedHashMap<String, CompletableFuture<Ingredient>>();
+            var waiting = new HashMap<String, CompletableFuture<Ingredient>>();
+
+            requested.forEach((key, title) -> {
+                if (found.containsKey(key)) {
+                    return;
+                }
+
+                var ingredient = ingredientDictionary.get(title);
+                if (ingredient != null) {
+                    found.put(key, ingredient);
+                    return;
+                }
+
+                var creation = new CompletableFuture<Ingredient>();
+                var other = creating.putIfAbsent(key, creation);
+                if (other == null) {
+                    claimed.put(key, creation);
+                } else {
+                    waiting.put(key, other);
+                }
+            });
+
+            if (!claimed.isEmpty()) {
+                create(requested, claimed, found);
+            }
+
+            waiting.forEach((key, creation) -> {
+                try {
+                    var ingredient = creation.join();
+                    if (ingredient != null) {
+                        found.put(key, ingredient);
+                    }
+                } catch (CompletionException e) {
+                    // The caller that claimed it failed, the next attempt claims it again
+                }
+            });
+
+            if (found.size() == requested.size()) {
+                break;
+            }
+
+            if (attempt == MAX_ATTEMPTS) {
+                throw new ConflictException(new ErrorDto("ingredients", Errors.INGREDIENT_NOT_CREATED));
+            }
+        }
+
+        var ingredients = new ArrayList<Ingredient>(requested.size());
+        for (var key : requested.keySet()) {
+            ingredients.add(found.get(key));
+        }
+
+        return ingredients;
+    }
+
+    /**
+     * Inserts the claimed titles and looks them up, then hands the result to
+     * the callers waiting for them; a title that is still missing is handed
+     * over as null. The claims are released in any case.
+     */
+    private void create(Map<String, String> requested, Map<String, CompletableFuture<Ingredient>> claimed,
+                        Map<String, Ingredient> found) {
+        try {
+            // Another caller may have finished creating it since the dictionary was read
+            var missing = new ArrayList<String>();
+            claimed.forEach((key, creation) -> {
+                var title = requested.get(key);
+                var ingredient = ingredientDictionary.get(title);
+                if (ingredient != null) {
+                    found.put(key, ingredient);
+                } else {
+                    missing.add(title);
+                }
+            });
+
+            if (!missing.isEmpty()) {
+                ingredientRepository.insertTitles(missing);
+                found.putAll(findByTitles(missing));
+            }
+
+            claimed.forEach((key, creation) -> creation.complete(found.get(key)));
+        } catch (RuntimeException e) {
+            claimed.values().forEach(creation -> creation.completeExceptionally(e));
+            throw e;
+        } finally {
+            claimed.forEach(creating::remove);
+        }
+    }
+
+    /**
+     * Looks the titles up and returns the ingredients by normalized title.
+     * The collation of ingredient.title can match a title to a row whose title
+     * has another key, such as an accent variant, so a title that none of the
+     * returned rows matches in memory is looked up on its own and the row
+     * found is added to the dictionary as an alias of it.
+     */
+    private Map<String, Ingredient> findByTitles(Collection<String> titles) {
+        var found = new HashMap<String, Ingredient>();
+        ingredientDictionary.putAll(ingredientRepository.findByTitleIn(titles));
+
+        for (var title : titles) {
+            var ingredient = ingredientDictionary.get(title);
+            if (ingredient == null) {
+                var row = ingredientRepository.findByTitle(title);
+                if (row.isPresent()) {
+                    ingredientDictionary.putAlias(title, row.get());
+                    ingredient = ingredientDictionary.get(title);
+                }
+            }
+
+            if (ingredient != null) {
+                found.put(Titles.normalize(title), ingredient);
+            }
+        }
+
+        return found;
+    }
+}
@@ -0,0 +1,231 @@
+package nl.abnamro.recipes.service;
+
+import nl.abnamro.recipes.datasource.DataSourceRouting;
+import nl.abnamro.recipes.domain.Ingredient;
+import nl.abnamro.recipes.domain.Recipe;
+import nl.abnamro.recipes.dto.BatchResultDto;
+import nl.abnamro.recipes.dto.BatchResultDto.Status;
+import nl.abnamro.recipes.dto.ErrorDto;
+import nl.abnamro.recipes.dto.RecipeDto;
+import nl.abnamro.recipes.metrics.RequestProfile;
+import nl.abnamro.recipes.repository.RecipeRepository;
+import nl.abnamro.recipes.service.exception.AlreadyExistException;
+import nl.abnamro.recipes.service.exception.BadRequestException;
+import nl.abnamro.recipes.service.exception.ServiceErrorException;
+import nl.abnamro.recipes.utils.Errors;
+import nl.abnamro.recipes.utils.Titles;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+import javax.validation.Validator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Imports many recipes at once. The recipes are read in chunks; every chunk
+ * checks its titles with one query, resolves all of its ingredients at once
+ * and is written with JDBC batches in its own transaction.
+ */
+@Service
+public class RecipeBatchService {
+
+    @Value("${recipes.batch.chunk-size:1000}")
+    private int chunkSize;
+
+    @Autowired
+    private RecipeRepository recipeRepository;
+
+    @Autowired
+    private IngredientService ingredientService;
+
+    @Autowired
+    private RecipeService recipeService;
+
+    @Autowired
+    private Validator validator;
+
+    public List<BatchResultDto> importAll(Iterator<RecipeDto> recipes) {
+        RequestProfile.current().operation("write", "batch");
+
+        try (var primary = DataSourceRouting.primary()) {
+            return importChunks(recipes);
+        }
+    }
+
+    private List<BatchResultDto> importChunks(Iterator<RecipeDto> recipes) {
+        var results = new ArrayList<BatchResultDto>();
+        var seenTitles = new HashSet<String>();
+
+        var chunk = new ArrayList<RecipeDto>(chunkSize);
+        var chunkResults = new ArrayList<BatchResultDto>(chunkSize);
+
+        for (int index = 0; recipes.hasNext(); index++) {
+            var recipeDto = recipes.next();
+            var result = BatchResultDto.builder().index(index).build();
+            results.add(result);
+
+            if (!validate(recipeDto, result)) {
+                continue;
+            }
+
+            if (!seenTitles.add(Titles.normalize(recipeDto.getTitle()))) {
+                reject(result, Status.CONFLICT, new ErrorDto("title", Errors.RECIPE_SAME_TITLE));
+                continue;
+            }
+
+            chunk.add(recipeDto);
+            chunkResults.add(result);
+
+            if (chunk.size() == chunkSize) {
+                importChunk(chunk, chunkResults);
+                chunk.clear();
+                chunkResults.clear();
+            }
+        }
+
+        if (!chunk.isEmpty()) {
+            importChunk(chunk, chunkResults);
+        }
+
+        return results;
+    }
+
+    private boolean validate(RecipeDto recipeDto, BatchResultDto result) {
+        if (recipeDto == null) {
+            reject(result, Status.INVALID, new ErrorDto(Errors.RECIPE_EMPTY));
+            return false;
+        }
+
+        result.setTitle(recipeDto.getTitle());
+
+        var violations = validator.validate(recipeDto);
+        if (!violations.isEmpty()) {
+            var errors = violations.stream()
+                    .map(v -> new ErrorDto(v.getPropertyPath().toString(), v.getMessage()))
+                    .toArray(ErrorDto[]::new);
+
+            reject(result, Status.INVALID, errors);
+            return false;
+        }
+
+        if (recipeDto.getRecipeId() != null) {
+            reject(result, Status.INVALID, new ErrorDto("recipeId", Errors.RECIPE_ID_SHOULD_BE_EMPTY));
+            return false;
+        }
+
+        return true;
+    }
+
+    private void importChunk(List<RecipeDto> chunk, List<BatchResultDto> chunkResults) {
+        var titles = chunk.stream().map(RecipeDto::getTitle).collect(Collectors.toList());
+        var existing = recipeRepository.findTitlesIn(titles).stream()
+                .map(Titles::normalize)
+                .collect(Collectors.toSet());
+
+        var accepted = new ArrayList<RecipeDto>();
+        var acceptedResults = new ArrayList<BatchResultDto>();
+
+        for (int i = 0; i < chunk.size(); i++) {
+            if (existing.contains(Titles.normalize(chunk.get(i).getTitle()))) {
+                reject(chunkResults.get(i), Status.CONFLICT, new ErrorDto("title", Errors.RECIPE_SAME_TITLE));
+            } else {
+                accepted.add(chunk.get(i));
+                acceptedResults.add(chunkResults.get(i));
+            }
+        }
+
+        if (accepted.isEmpty()) {
+            return;
+        }
+
+        var ingredients = resolveIngredients(accepted);
+        var recipes = new ArrayList<Recipe>(accepted.size());
+
+        for (var recipeDto : accepted) {
+            var recipe = RecipeDto.toEntity(recipeDto);
+            recipe.setIngredients(ingredientsOf(recipeDto, ingredients));
+            recipes.add(recipe);
+        }
+
+        try {
+            recipeRepository.insertAll(recipes);
+        } catch (DataIntegrityViolationException e) {
+            // A concurrent writer took one of the titles, find out which one by one
+            importOneByOne(accepted, acceptedResults);
+            return;
+        }
+
+        recipeService.indexNew(recipes);
+
+        for (int i = 0; i < recipes.size(); i++) {
+            acceptedResults.get(i).setRecipeId(recipes.get(i).getRecipeId());
+            acceptedResults.get(i).setStatus(Status.CREATED);
+        }
+    }
+
+    private void importOneByOne(List<RecipeDto> recipes, List<BatchResultDto> results) {
+        for (int i = 0; i < recipes.size(); i++) {
+            var result = results.get(i);
+
+            try {
+                var saved = recipeService.save(recipes.get(i));
+
+                result.setRecipeId(saved.getRecipeId());
+                result.setStatus(Status.CREATED);
+            } catch (AlreadyExistException e) {
+                reject(result, Status.CONFLICT, e);
+            } catch (BadRequestException e) {
+                reject(result, Status.INVALID, e);
+            } catch (RuntimeException e) {
+                reject(result, Status.FAILED, new ErrorDto(Errors.INTERNAL_SERVER_ERROR));
+            }
+        }
+    }
+
+    private HashMap<String, Ingredient> resolveIngredients(List<RecipeDto> recipes) {
+        var titles = new LinkedHashMap<String, String>();
+        for (var recipeDto : recipes) {
+            for (var title : recipeDto.getIngredients()) {
+                titles.putIfAbsent(Titles.normalize(title), title);
+            }
+        }
+
+        // getOrCreate keeps the order of the distinct titles it receives
+        var resolved = ingredientService.getOrCreate(titles.values()).iterator();
+        var ingredients = new HashMap<String, Ingredient>();
+        for (var key : titles.keySet()) {
+            ingredients.put(key, resolved.next());
+        }
+
+        return ingredients;
+    }
+
+    private List<Ingredient> ingredientsOf(RecipeDto recipeDto, HashMap<String, Ingredient> ingredients) {
+        // Titles with different keys can still be one ingredient for the collation
+        var distinct = new LinkedHashSet<Ingredient>();
+        for (var title : recipeDto.getIngredients()) {
+            distinct.add(ingredients.get(Titles.normalize(title)));
+        }
+
+        return new ArrayList<>(distinct);
+    }
+
+    private static void reject(BatchResultDto result, Status status, ServiceErrorException e) {
+        result.setStatus(status);
+        result.setErrors(e.getErrors());
+    }
+
+    private static void reject(BatchResultDto result, Status status, ErrorDto... errors) {
+        result.setStatus(status);
+        result.setErrors(Arrays.asList(errors));
+    }
+}
@@ -1,94 +1,481 @@
 package nl.abnamro.recipes.service;
 
+import nl.abnamro.recipes.cache.CatalogVersions;
+import nl.abnamro.recipes.cache.FindCache;
+import nl.abnamro.recipes.datasource.DataSourceRouting;
 import nl.abnamro.recipes.domain.Recipe;
+import nl.abnamro.recipes.dto.DeleteResultDto;
 import nl.abnamro.recipes.dto.ErrorDto;
+import nl.abnamro.recipes.dto.FacetsDto;
 import nl.abnamro.recipes.service.exception.AlreadyExistException;
 import nl.abnamro.recipes.service.exception.BadRequestException;
+import nl.abnamro.recipes.service.exception.ConflictException;
 import nl.abnamro.recipes.service.exception.NotFoundException;
 import nl.abnamro.recipes.utils.Errors;
-import nl.abnamro.recipes.domain.Ingredient;
 import nl.abnamro.recipes.dto.RecipeDto;
+import nl.abnamro.recipes.dto.RecipeFilter;
+import nl.abnamro.recipes.index.IngredientDictionary;
+import nl.abnamro.recipes.index.RecipeIndex;
+import nl.abnamro.recipes.index.RecipePartitions;
+import nl.abnamro.recipes.index.TextIndex;
+import nl.abnamro.recipes.metrics.RecipeMetrics;
+import nl.abnamro.recipes.metrics.RequestProfile;
 import nl.abnamro.recipes.repository.IngredientRepository;
 import nl.abnamro.recipes.repository.RecipeRepository;
+import nl.abnamro.recipes.repository.RecipeText;
+import org.roaringbitmap.RoaringBitmap;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.annotation.PostConstruct;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 @Service
 public class RecipeService {
 
+    private static final int INDEX_LOAD_PAGE_SIZE = 1000;
+
+    private static final int FIRST_VERSION = 0;
+
+    private static final int DELETED = Integer.MAX_VALUE;
+
+    @Value("${recipes.find.default-limit:100}")
+    private int defaultLimit;
+
+    @Value("${recipes.find.max-limit:1000}")
+    private int maxLimit;
+
+    @Value("${recipes.find.stream-fetch-size:500}")
+    private int streamFetchSize;
+
+    @Value("${recipes.facets.default-top:10}")
+    private int defaultFacetTop;
+
+    @Value("${recipes.delete.chunk-size:1000}")
+    private int deleteChunkSize;
+
     @Autowired
     private RecipeRepository recipeRepository;
 
     @Autowired
     private IngredientRepository ingredientRepository;
 
-    public List<Recipe> find(String text, String include, String exclude, Integer servings, Boolean vegetarian) {
-        return recipeRepository.find(text, include, exclude, servings, vegetarian);
+    @Autowired
+    private IngredientService ingredientService;
+
+    @Autowired
+    private IngredientDictionary ingredientDictionary;
+
+    @Autowired
+    private RecipeIndex recipeIndex;
+
+    @Autowired
+    private TextIndex textIndex;
+
+    @Autowired
+    private FindCache findCache;
+
+    @Autowired
+    private CatalogVersions catalogVersions;
+
+    @Autowired
+    private RecipeMetrics metrics;
+
+    private TransactionTemplate readOnlyTransaction;
+
+    // Version of every indexed recipe, DELETED once it is removed; index writes hold the lock
+    private final Map<Integer, Integer> indexedVersions = new HashMap<>();
+
+    private final Object indexLock = new Object();
+
+    @Autowired
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+    }
+
+    /**
+     * Loads the ingredient dictionary and the recipe indexes from the database. It runs at startup and
+     * can be called again whenever the tables were changed behind the service.
+     */
+    @PostConstruct
+    public void rebuildIndex() {
+        // The indexes must reflect the primary, not a replica that may lag behind
+        try (var primary = DataSourceRouting.primary()) {
+            ingredientDictionary.load(ingredientRepository.findAll());
+
+            var attributes = recipeRepository.findAllAttributes();
+            synchronized (indexLock) {
+                indexedVersions.clear();
+                for (var recipe : attributes) {
+                    indexedVersions.put(recipe.getRecipeId(), recipe.getVersion());
+                }
+            }
+            recipeIndex.rebuild(attributes, recipeRepository.findAllIngredientIds());
+
+            textIndex.clear();
+            var page = PageRequest.ofSize(INDEX_LOAD_PAGE_SIZE);
+            var lastId = 0;
+            List<RecipeText> texts;
+            do {
+                texts = recipeRepository.findByRecipeIdGreaterThanOrderByRecipeId(lastId, page);
+                textIndex.add(texts);
+
+                if (!texts.isEmpty()) {
+                    lastId = texts.get(texts.size() - 1).getRecipeId();
+                }
+            } while (texts.size() == INDEX_LOAD_PAGE_SIZE);
+
+            findCache.clear();
+            catalogVersions.reset();
+        }
+    }
+
+    public List<RecipeDto> find(String text, String include, String exclude, Integer servings, Boolean vegetarian) {
+        return find(RecipeFilter.of(text, include, exclude, servings, vegetarian), null, null).getContent();
+    }
+
+    /**
+     * Returns the version of the catalog that the results of the filter depend
+     * on. It changes after every write that can change them, and is meant to be
+     * read before the results.
+     */
+    public long version(RecipeFilter filter) {
+        return catalogVersions.of(filter);
+    }
+
+    /**
+     * Returns one page of recipes ordered by id, starting after the given recipe
+     * id. Pages come from the find cache when possible; otherwise they are read in
+     * a read-only transaction, with one extra row to know whether there is a next
+     * page, and projected into DTOs without managed entities.
+     */
+    public Slice<RecipeDto> find(RecipeFilter filter, Integer after, Integer limit) {
+        if (limit == null) {
+            limit = defaultLimit;
+        }
+
+        if (limit < 1 || limit > maxLimit) {
+            throw new BadRequestException(new ErrorDto("limit", String.format(Errors.INVALID_LIMIT, maxLimit)));
+        }
+
+        RequestProfile.current().operation("find", filter);
+
+        var start = System.nanoTime();
+        var loaded = new boolean[1];
+        var pageSize = limit;
+        Supplier<Slice<RecipeDto>> loader = () -> {
+            loaded[0] = true;
+            return readOnlyTransaction.execute(status -> loadPage(filter, after, pageSize));
+        };
+
+        // Clients reading their own writes bypass the cache, which may hold pages read from a lagging replica
+        var page = DataSourceRouting.isPrimaryRequired()
+                ? loader.get()
+                : findCache.get(filter, after, pageSize, loader);
+
+        metrics.find(filter.shape(), !loaded[0], System.nanoTime() - start, page.getNumberOfElements());
+        RequestProfile.current().rows(page.getNumberOfElements());
+
+        return page;
+    }
+
+    /**
+     * Hands every matching recipe after the given id to the action while the rows
+     * are read from a cursor, so the result is never held in memory at once.
+     */
+    @Transactional(readOnly = true)
+    public void stream(RecipeFilter filter, Integer after, Consumer<RecipeDto> action) {
+        recipeRepository.stream(filter, after, streamFetchSize, action);
+    }
+
+    /**
+     * Counts the matching recipes per vegetarian flag, serving size and
+     * ingredient, returning the given number of most used ingredients. Without a
+     * text filter the whole result comes from the recipe index; otherwise only the
+     * ids of the matching recipes are read from the database.
+     */
+    public FacetsDto facets(RecipeFilter filter, Integer top) {
+        if (top == null) {
+            top = defaultFacetTop;
+        }
+
+        if (top < 1 || top > maxLimit) {
+            throw new BadRequestException(new ErrorDto("top", String.format(Errors.INVALID_TOP, maxLimit)));
+        }
+
+        var facets = recipeIndex.facets(matching(filter));
+
+        var ingredients = facets.getIngredients().entrySet().stream()
+                .map(e -> new FacetsDto.IngredientCount(ingredientDictionary.titleOf(e.getKey()), e.getValue()))
+                .sorted(Comparator.comparingLong(FacetsDto.IngredientCount::getCount).reversed()
+                        .thenComparing(FacetsDto.IngredientCount::getTitle))
+                .limit(top)
+                .collect(Collectors.toList());
+
+        return FacetsDto.builder()
+                .count(facets.getCount())
+                .vegetarian(facets.getVegetarian())
+                .serves(facets.getServes())
+                .ingredients(ingredients)
+                .build();
     }
 
     public RecipeDto save(RecipeDto recipeDto) {
+        RequestProfile.current().operation("write", recipeDto);
+
         if (recipeDto.getRecipeId() != null) {
             throw new BadRequestException(new ErrorDto("recipeId", Errors.RECIPE_ID_SHOULD_BE_EMPTY));
         }
 
-        var duplicateRecipe = recipeRepository.findByTitle(recipeDto.getTitle());
-        if (duplicateRecipe.isPresent()) {
-            throw new AlreadyExistException(new ErrorDto("title", Errors.RECIPE_SAME_TITLE));
-        }
+        // Writes check and write on the primary, a replica may not have the latest recipes yet
+        try (var primary = DataSourceRouting.primary()) {
+            var duplicateRecipe = recipeRepository.findByTitle(recipeDto.getTitle());
+            if (duplicateRecipe.isPresent()) {
+                throw new AlreadyExistException(new ErrorDto("title", Errors.RECIPE_SAME_TITLE));
+            }
 
-        return saveRegister(recipeDto);
+            return saveRegister(recipeDto);
+        }
     }
 
     public RecipeDto saveOrUpdate(RecipeDto recipeDto) {
+        RequestProfile.current().operation("write", recipeDto);
+
         // If id is empty, just save a new register
         if (recipeDto.getRecipeId() == null) {
             return save(recipeDto);
         }
 
-        var recipeFromDB = recipeRepository.findById(recipeDto.getRecipeId());
-        if (recipeFromDB.isEmpty()) {
-            throw new NotFoundException(new ErrorDto("recipeId", Errors.RECIPE_NOT_FOUND));
+        try (var primary = DataSourceRouting.primary()) {
+            return update(recipeDto);
         }
-
-        return saveRegister(recipeDto);
     }
 
     public void delete(Integer id) {
-        Optional<Recipe> recipe = recipeRepository.findById(id);
-        if (recipe.isEmpty()) {
-            throw new NotFoundException(new ErrorDto("recipeId", Errors.RECIPE_NOT_FOUND));
-        }
+        RequestProfile.current().operation("write", id);
 
-        recipeRepository.delete(recipe.get());
+        try (var primary = DataSourceRouting.primary()) {
+            if (recipeRepository.deleteRecipes(List.of(id)) == 0) {
+                throw new NotFoundException(new ErrorDto("recipeId", Errors.RECIPE_NOT_FOUND));
+            }
+
+            unindex(RoaringBitmap.bitmapOf(id));
+        }
     }
 
-    private RecipeDto saveRegister(RecipeDto recipeDto) {
-        var ingredients = new ArrayList<Ingredient>();
-        for (var ingredientStr : recipeDto.getIngredients()) {
-            var ingredient = ingredientRepository.findByTitle(ingredientStr);
+    /**
+     * Deletes the recipes with the given ids, or the ones matching the filter,
+     * or the given ones that match the filter when both are set. They are
+     * deleted by id in chunks, each in its own transaction, so a large cleanup
+     * neither loads the recipes nor holds its locks until the end.
+     */
+    public DeleteResultDto deleteAll(List<Integer> ids, RecipeFilter filter) {
+        RequestProfile.current().operation("write", ids.isEmpty() ? filter : ids);
+
+        var unfiltered = filter.shape().equals("none");
+        if (ids.isEmpty() && unfiltered) {
+            throw new BadRequestException(new ErrorDto(Errors.DELETE_WITHOUT_CRITERIA));
+        }
 
-            if (!ingredient.isEmpty()) {
-                ingredients.add(ingredient.get());
-            } else {
-                var newIngredient = Ingredient.builder()
-                        .title(ingredientStr)
-                        .build();
+        if (ids.stream().anyMatch(Objects::isNull)) {
+            throw new BadRequestException(new ErrorDto("ids", Errors.DELETE_EMPTY_ID));
+        }
 
-                ingredientRepository.save(newIngredient);
+        try (var primary = DataSourceRouting.primary()) {
+            var targets = ids.isEmpty()
+                    ? matching(filter)
+                    : RoaringBitmap.bitmapOf(ids.stream().mapToInt(Integer::intValue).toArray());
 
-                ingredients.add(newIngredient);
+            if (!ids.isEmpty() && !unfiltered) {
+                targets.and(matching(filter));
             }
+
+            var deleted = 0;
+            var chunk = new ArrayList<Integer>(deleteChunkSize);
+            for (var iterator = targets.getIntIterator(); iterator.hasNext(); ) {
+                chunk.add(iterator.next());
+
+                if (chunk.size() == deleteChunkSize || !iterator.hasNext()) {
+                    deleted += recipeRepository.deleteRecipes(chunk);
+                    unindex(RoaringBitmap.bitmapOf(chunk.stream().mapToInt(Integer::intValue).toArray()));
+                    chunk.clear();
+                }
+            }
+
+            return new DeleteResultDto(deleted);
         }
+    }
+
+    private RecipeDto saveRegister(RecipeDto recipeDto) {
+        // Accent variants of one ingredient resolve to it more than once
+        var ingredients = ingredientService.getOrCreate(recipeDto.getIngredients()).stream()
+                .distinct()
+                .collect(Collectors.toList());
 
         var recipe = RecipeDto.toEntity(recipeDto);
         recipe.setIngredients(ingredients);
+        recipe.setVersion(null);
+
+        try {
+            recipe = recipeRepository.save(recipe);
+        } catch (DataIntegrityViolationException e) {
+            // A concurrent writer saved a recipe with the same title since it was checked
+            if (recipeRepository.findByTitle(recipeDto.getTitle()).isPresent()) {
+                throw new AlreadyExistException(new ErrorDto("title", Errors.RECIPE_SAME_TITLE));
+            }
+            throw e;
+        }
+        indexNew(List.of(recipe));
+
+        return RecipeDto.toDTO(recipe);
+    }
+
+    /**
+     * Updates the recipe without reading it first. Only when nothing was
+     * updated is the recipe looked up, to tell a missing recipe from one that
+     * changed since the version the client read.
+     */
+    private RecipeDto update(RecipeDto recipeDto) {
+        var recipe = RecipeDto.toEntity(recipeDto);
+        recipe.setIngredients(ingredientService.getOrCreate(recipeDto.getIngredients()).stream()
+                .distinct()
+                .collect(Collectors.toList()));
+
+        int updated;
+        try {
+            updated = recipeRepository.update(recipe);
+        } catch (DuplicateKeyException e) {
+            throw new AlreadyExistException(new ErrorDto("title", Errors.RECIPE_SAME_TITLE));
+        }
+
+        if (updated == 0) {
+            if (recipeDto.getVersion() != null && recipeRepository.existsById(recipeDto.getRecipeId())) {
+                throw new ConflictException(new ErrorDto("version", Errors.RECIPE_VERSION_CONFLICT));
+            }
+
+            throw new NotFoundException(new ErrorDto("recipeId", Errors.RECIPE_NOT_FOUND));
+        }
+
+        index(recipe);
 
-        recipe = recipeRepository.save(recipe);
         return RecipeDto.toDTO(recipe);
     }
 
+    private Slice<RecipeDto> loadPage(RecipeFilter filter, Integer after, int limit) {
+        var recipes = recipeRepository.find(filter, after, limit + 1);
+
+        var hasNext = recipes.size() > limit;
+        if (hasNext) {
+            recipes = recipes.subList(0, limit);
+        }
+
+        return new SliceImpl<>(recipes, PageRequest.ofSize(limit), hasNext);
+    }
+
+    void index(Recipe recipe) {
+        index(List.of(recipe));
+    }
+
+    /**
+     * Indexes written recipes. The indexes are updated after the writes have
+     * committed, in whatever order the writers get here, so a recipe is only
+     * indexed when its version is newer than the indexed one: an update that
+     * committed first but arrives last, or one of a deleted recipe, is skipped.
+     */
+    void index(List<Recipe> recipes) {
+        var partitions = new ArrayList<RecipePartitions>(recipes.size() * 2);
+
+        synchronized (indexLock) {
+            for (var recipe : recipes) {
+                var indexed = indexedVersions.get(recipe.getRecipeId());
+                if (indexed != null && indexed >= recipe.getVersion()) {
+                    continue;
+                }
+
+                partitions.add(recipeIndex.partitionsOf(recipe.getRecipeId()));
+                partitions.add(RecipePartitions.of(recipe));
+
+                recipeIndex.put(recipe);
+                textIndex.put(recipe.getRecipeId(), recipe.getTitle(), recipe.getInstructions());
+                indexedVersions.put(recipe.getRecipeId(), recipe.getVersion());
+            }
+        }
+
+        findCache.saved(RecipeDto.toDTO(recipes));
+        catalogVersions.written(partitions.toArray(RecipePartitions[]::new));
+    }
+
+    /**
+     * Indexes recipes whose ids were just allocated. Nothing of them can be in
+     * the indexes yet, so nothing is removed or looked up first, and only the
+     * partitions they are added to change version.
+     */
+    void indexNew(List<Recipe> recipes) {
+        synchronized (indexLock) {
+            // Nothing can have updated them yet: their ids were only just handed out
+            for (var recipe : recipes) {
+                indexedVersions.put(recipe.getRecipeId(), FIRST_VERSION);
+            }
+
+            recipeIndex.addAll(recipes);
+            textIndex.add(recipes);
+        }
+
+        var partitions = new RecipePartitions[recipes.size()];
+        for (int i = 0; i < recipes.size(); i++) {
+            partitions[i] = RecipePartitions.of(recipes.get(i));
+        }
+
+        findCache.saved(RecipeDto.toDTO(recipes));
+        catalogVersions.written(partitions);
+    }
+
+    void unindex(RoaringBitmap recipeIds) {
+        var ids = new ArrayList<Integer>(recipeIds.getCardinality());
+        var partitions = new ArrayList<RecipePartitions>(recipeIds.getCardinality());
+        for (int recipeId : recipeIds) {
+            ids.add(recipeId);
+            partitions.add(recipeIndex.partitionsOf(recipeId));
+        }
+
+        synchronized (indexLock) {
+            for (var recipeId : ids) {
+                indexedVersions.put(recipeId, DELETED);
+            }
+
+            recipeIndex.removeAll(recipeIds);
+            textIndex.removeAll(recipeIds);
+        }
+        findCache.deleted(ids);
+        catalogVersions.written(partitions.toArray(RecipePartitions[]::new));
+    }
+
+    /**
+     * Returns the ids of the recipes matching the filter: from the indexes alone,
+     * unless the text has to be checked by the database.
+     */
+    private RoaringBitmap matching(RecipeFilter filter) {
+        return filter.getText() == null
+                ? recipeIndex.matching(filter)
+                : readOnlyTransaction.execute(status -> recipeRepository.findIds(filter, streamFetchSize));
+    }
+
 }
@@ -0,0 +1,11 @@
+package nl.abnamro.recipes.service.exception;
+
+import nl.abnamro.recipes.dto.ErrorDto;
+
+public class ConflictException extends ServiceErrorException {
+
+
+    public ConflictException(ErrorDto dto) {
+        super(dto);
+    }
+}
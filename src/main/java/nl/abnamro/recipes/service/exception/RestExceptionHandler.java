@@ -31,6 +31,12 @@ public class RestExceptionHandler extends ResponseEntityExceptionHandler {
         return ex.getErrors();
     }
 
+    @ExceptionHandler(value = { ConflictException.class })
+    @ResponseStatus(HttpStatus.CONFLICT)
+    protected List<ErrorDto> handleConflict(ConflictException ex, WebRequest request) {
+        return ex.getErrors();
+    }
+
     @ExceptionHandler(value = { BadRequestException.class })
     @ResponseStatus(HttpStatus.BAD_REQUEST)
     protected List<ErrorDto> handleBadRequest(BadRequestException ex, WebRequest request) {
@@ -0,0 +1,262 @@
+package nl.abnamro.recipes.utils;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nl.abnamro.recipes.dto.RecipeDto;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+
+/**
+ * Generates large synthetic catalogs that are the same for the same seed.
+ * Ingredient popularity follows a Zipf distribution, the number of steps in
+ * the instructions is log-normal, and serving sizes and the share of
+ * vegetarian recipes follow fixed weights. Recipes are produced lazily, so
+ * millions of them can be written to the database or to a file.
+ */
+public class CatalogGenerator {
+
+    private static final String[] PLANTS = {
+            "Tomato", "Onion", "Garlic", "Carrot", "Potato", "Basil", "Rice", "Bean", "Chickpea", "Lentil",
+            "Pepper", "Spinach", "Mushroom", "Zucchini", "Eggplant", "Cabbage", "Broccoli", "Cauliflower", "Leek",
+            "Celery", "Pea", "Corn", "Lettuce", "Cucumber", "Pumpkin", "Sweet Potato", "Ginger", "Chili", "Cumin",
+            "Coriander", "Parsley", "Thyme", "Rosemary", "Oregano", "Paprika", "Turmeric", "Lemon", "Lime", "Apple",
+            "Pear", "Almond", "Walnut", "Cashew", "Peanut", "Sesame", "Tofu", "Noodle", "Pasta", "Flour", "Oat",
+            "Quinoa", "Couscous", "Bread", "Egg", "Milk", "Butter", "Cheese", "Yogurt", "Cream", "Honey",
+            "Olive Oil", "Soy Sauce", "Vinegar", "Mustard", "Coconut Milk"
+    };
+
+    private static final String[] MEATS = {
+            "Chicken", "Beef", "Pork", "Lamb", "Turkey", "Duck", "Bacon", "Ham", "Sausage", "Salmon", "Tuna", "Cod",
+            "Shrimp", "Mussel", "Anchovy", "Chorizo"
+    };
+
+    private static final String[] VARIETIES = {
+            "", "Red", "Green", "Yellow", "Smoked", "Dried", "Fresh", "Baby", "Wild", "Sweet", "Roasted", "Ground",
+            "Organic", "Pickled", "Frozen", "Canned", "Grilled", "Spicy", "White", "Black"
+    };
+
+    private static final String[] DISHES = {
+            "Curry", "Stew", "Soup", "Salad", "Pie", "Bake", "Stir Fry", "Risotto", "Pasta", "Tart", "Burger",
+            "Wrap", "Bowl", "Casserole", "Skewers", "Omelette", "Gratin", "Tagine", "Chili", "Pancakes"
+    };
+
+    private static final String[] STYLES = {
+            "Classic", "Quick", "Rustic", "Spicy", "Creamy", "Crispy", "Smoky", "Summer", "Winter", "Weeknight",
+            "Family", "Mediterranean", "Thai", "Mexican", "Indian", "French", "Italian", "Moroccan"
+    };
+
+    private static final String[] STEPS = {
+            "Chop the %s and set aside.",
+            "Heat a pan and fry the %s for %d minutes.",
+            "Add the %s and stir well.",
+            "Simmer with the %s for %d minutes.",
+            "Season the %s with salt and pepper.",
+            "Bake the %s in the oven for %d minutes.",
+            "Mix the %s in a large bowl.",
+            "Serve with the %s on top."
+    };
+
+    private static final int[] SERVES = { 1, 2, 3, 4, 6, 8 };
+
+    private static final double[] SERVES_WEIGHTS = { 0.05, 0.35, 0.10, 0.30, 0.12, 0.08 };
+
+    private static final double VEGETARIAN_SHARE = 0.35;
+
+    private static final double ZIPF_EXPONENT = 1.07;
+
+    private final long seed;
+
+    private final String[] ingredients;
+
+    private final boolean[] meat;
+
+    private final double[] popularity;
+
+    public CatalogGenerator(long seed) {
+        this.seed = seed;
+
+        var names = new ArrayList<String>();
+        var meatNames = new ArrayList<Boolean>();
+        for (var variety : VARIETIES) {
+            for (var plant : PLANTS) {
+                names.add(name(variety, plant));
+                meatNames.add(false);
+            }
+            for (var animal : MEATS) {
+                names.add(name(variety, animal));
+                meatNames.add(true);
+            }
+        }
+
+        // The popularity rank of every ingredient depends on the seed too
+        var random = new SplittableRandom(seed).split();
+        var order = new int[names.size()];
+        Arrays.setAll(order, i -> i);
+        for (int i = order.length - 1; i > 0; i--) {
+            var j = random.nextInt(i + 1);
+            var swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+
+        ingredients = new String[order.length];
+        meat = new boolean[order.length];
+        for (int rank = 0; rank < order.length; rank++) {
+            ingredients[rank] = names.get(order[rank]);
+            meat[rank] = meatNames.get(order[rank]);
+        }
+
+        popularity = new double[order.length];
+        var total = 0.0;
+        for (int rank = 0; rank < order.length; rank++) {
+            total += 1 / Math.pow(rank + 1, ZIPF_EXPONENT);
+            popularity[rank] = total;
+        }
+        for (int rank = 0; rank < order.length; rank++) {
+            popularity[rank] /= total;
+        }
+    }
+
+    /**
+     * Returns the ingredient with the given popularity rank, 0 being the most used.
+     */
+    public String ingredient(int rank) {
+        return ingredients[rank];
+    }
+
+    public int ingredientCount() {
+        return ingredients.length;
+    }
+
+    /**
+     * Returns a lazy sequence of the first recipes of the catalog. The first
+     * recipes are the same whatever the count.
+     */
+    public Iterator<RecipeDto> recipes(int count) {
+        var random = new SplittableRandom(seed);
+
+        return new Iterator<>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < count;
+            }
+
+            @Override
+            public RecipeDto next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                return recipe(random, next++);
+            }
+        };
+    }
+
+    public List<RecipeDto> list(int count) {
+        var recipes = new ArrayList<RecipeDto>(count);
+        recipes(count).forEachRemaining(recipes::add);
+        return recipes;
+    }
+
+    /**
+     * Writes the recipes as newline delimited JSON, the format accepted by the
+     * batch import endpoint.
+     */
+    public void writeNdjson(int count, OutputStream out) throws IOException {
+        try (var writer = new ObjectMapper().writer()
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .withRootValueSeparator("\n")
+                .writeValues(out)) {
+            for (var recipes = recipes(count); recipes.hasNext(); ) {
+                writer.write(recipes.next());
+            }
+        }
+        out.write('\n');
+    }
+
+    private RecipeDto recipe(SplittableRandom random, int number) {
+        var vegetarian = random.nextDouble() < VEGETARIAN_SHARE;
+
+        var size = (int) Math.round(7 + 3 * random.nextGaussian());
+        size = Math.max(2, Math.min(15, size));
+
+        var chosen = new ArrayList<String>(size);
+        var hasMeat = false;
+        for (int attempt = 0; chosen.size() < size && attempt < size * 10; attempt++) {
+            var rank = zipf(random);
+            if (vegetarian && meat[rank]) {
+                continue;
+            }
+
+            if (!chosen.contains(ingredients[rank])) {
+                chosen.add(ingredients[rank]);
+                hasMeat |= meat[rank];
+            }
+        }
+
+        if (!vegetarian && !hasMeat) {
+            chosen.add(0, MEATS[random.nextInt(MEATS.length)]);
+        }
+
+        var main = chosen.get(0);
+        var title = STYLES[random.nextInt(STYLES.length)] + " " + main + " "
+                + DISHES[random.nextInt(DISHES.length)] + " " + (number + 1);
+
+        return RecipeDto.builder()
+                .title(title)
+                .instructions(instructions(random, chosen))
+                .serves(serves(random))
+                .vegetarian(vegetarian)
+                .ingredients(chosen)
+                .build();
+    }
+
+    private String instructions(SplittableRandom random, List<String> ingredients) {
+        // Log-normal number of steps: a median of 5, with a long tail of elaborate recipes
+        var steps = Math.max(1, (int) Math.round(Math.exp(1.6 + 0.6 * random.nextGaussian())));
+
+        var text = new StringBuilder();
+        for (int i = 0; i < steps; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+
+            var step = STEPS[random.nextInt(STEPS.length)];
+            var ingredient = ingredients.get(random.nextInt(ingredients.size())).toLowerCase(Locale.ROOT);
+            text.append(String.format(step, ingredient, 5 + random.nextInt(56)));
+        }
+
+        return text.toString();
+    }
+
+    private int serves(SplittableRandom random) {
+        var value = random.nextDouble();
+        for (int i = 0; i < SERVES.length; i++) {
+            value -= SERVES_WEIGHTS[i];
+            if (value < 0) {
+                return SERVES[i];
+            }
+        }
+
+        return SERVES[SERVES.length - 1];
+    }
+
+    private int zipf(SplittableRandom random) {
+        var index = Arrays.binarySearch(popularity, random.nextDouble());
+        return Math.min(index < 0 ? -index - 1 : index, popularity.length - 1);
+    }
+
+    private static String name(String variety, String base) {
+        return variety.isEmpty() ? base : variety + " " + base;
+    }
+}
@@ -0,0 +1,43 @@
+package nl.abnamro.recipes.utils;
+
+import nl.abnamro.recipes.dto.ErrorDto;
+import nl.abnamro.recipes.service.exception.BadRequestException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque page cursor of the find endpoint. It carries the id of the last recipe
+ * of a page, so the next page starts right after it.
+ */
+public class Cursor {
+
+    private static final String PREFIX = "r:";
+
+    public static String encode(Integer recipeId) {
+        var raw = PREFIX + recipeId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static Integer decode(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+
+        try {
+            var raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            if (!raw.startsWith(PREFIX)) {
+                throw new IllegalArgumentException(raw);
+            }
+
+            var recipeId = Integer.valueOf(raw.substring(PREFIX.length()));
+            if (recipeId < 0) {
+                throw new IllegalArgumentException(raw);
+            }
+
+            return recipeId;
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(new ErrorDto("after", Errors.INVALID_CURSOR));
+        }
+    }
+}
@@ -5,7 +5,27 @@ public class Errors {
 
     public static String RECIPE_NOT_FOUND = "This recipe was not found in our database";
 
+    public static String RECIPE_VERSION_CONFLICT = "The recipe was changed since it was read";
+
     public static String RECIPE_ID_SHOULD_BE_EMPTY = "The id of the recipe should be empty";
 
+    public static String RECIPE_EMPTY = "The recipe should not be empty";
+
+    public static String INGREDIENT_NOT_CREATED = "The ingredients could not be created, please try again";
+
+    public static String INVALID_BATCH_BODY = "The body is not valid newline delimited JSON";
+
+    public static String INVALID_CURSOR = "The cursor is not valid";
+
+    public static String INVALID_TOP = "The top should be between 1 and %d";
+
+    public static String INVALID_MATCH = "The match should be all or any";
+
+    public static String INVALID_LIMIT = "The limit should be between 1 and %d";
+
+    public static String DELETE_WITHOUT_CRITERIA = "The ids or at least one filter of the recipes to delete should be given";
+
+    public static String DELETE_EMPTY_ID = "The ids of the recipes to delete should not be empty";
+
     public static String INTERNAL_SERVER_ERROR = "Internal server error";
 }
@@ -4,9 +4,18 @@ import nl.abnamro.recipes.dto.RecipeDto;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 
 public class SampleData {
 
+    /**
+     * Returns a lazy, seeded synthetic catalog of the given size. The same seed
+     * always produces the same recipes; see {@link CatalogGenerator}.
+     */
+    public static Iterator<RecipeDto> generate(long seed, int count) {
+        return new CatalogGenerator(seed).recipes(count);
+    }
+
     public static ArrayList<RecipeDto> create()
     {
         var okRecipeList = new ArrayList<RecipeDto>();
@@ -0,0 +1,51 @@
+package nl.abnamro.recipes.utils;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+public class Titles {
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    /**
+     * Folds a title by case, to be used as a key in memory. Titles with the
+     * same key are equal for the collation of the title columns, but the
+     * collation can equate more, such as accent variants under
+     * latin1_swedish_ci, so a missing key has to be confirmed by the database.
+     */
+    public static String normalize(String title) {
+        return title.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Folds a text to lower case without accents. Texts that fold to ASCII,
+     * see {@link #isExactFold(String)}, are equal after folding when a case
+     * and accent insensitive collation considers them equal.
+     */
+    public static String fold(String text) {
+        if (text == null) {
+            return "";
+        }
+
+        var decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        return MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Tells whether a text returned by {@link #fold(String)} is plain ASCII.
+     * Letters such as ß, æ, œ or ø have no accent to drop and stay as they
+     * are, while a collation may expand them to two letters or equate them
+     * with another one, so such a folded text says nothing about what the
+     * collation matches.
+     */
+    public static boolean isExactFold(String folded) {
+        for (int i = 0; i < folded.length(); i++) {
+            if (folded.charAt(i) > 0x7f) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
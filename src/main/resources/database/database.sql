@@ -1,17 +1,19 @@
 DROP TABLE IF EXISTS recipe_ingredient;
 DROP TABLE IF EXISTS ingredient;
 DROP TABLE IF EXISTS recipe;
+DROP TABLE IF EXISTS id_block;
 
 CREATE TABLE recipe (
-   recipe_id BIGINT AUTO_INCREMENT PRIMARY KEY,
+   recipe_id BIGINT PRIMARY KEY,
    title VARCHAR(255) NOT NULL UNIQUE,
    instructions TEXT NOT NULL,
    serves INT(2) NOT NULL,
-   vegetarian INT(1) NOT NULL
+   vegetarian INT(1) NOT NULL,
+   version INT NOT NULL DEFAULT 0
 );
 
 CREATE TABLE ingredient(
-	ingredient_id BIGINT PRIMARY KEY AUTO_INCREMENT,
+	ingredient_id BIGINT PRIMARY KEY,
 	title VARCHAR(100) NOT NULL UNIQUE
 );
 
@@ -21,3 +23,9 @@ CREATE TABLE recipe_ingredient(
 
 	PRIMARY KEY (recipe_id, ingredient_id)
 );
+
+-- Next free id of every entity, handed out in blocks by the application
+CREATE TABLE id_block(
+	entity_name VARCHAR(64) NOT NULL PRIMARY KEY,
+	next_id BIGINT NOT NULL
+);
@@ -1,11 +1,21 @@
 package nl.abnamro.recipes.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
 import io.restassured.RestAssured;
 import io.restassured.http.ContentType;
+import nl.abnamro.recipes.dto.BatchResultDto;
+import nl.abnamro.recipes.dto.DeleteResultDto;
 import nl.abnamro.recipes.dto.ErrorDto;
+import nl.abnamro.recipes.dto.FacetsDto;
 import nl.abnamro.recipes.dto.RecipeDto;
+import nl.abnamro.recipes.encoding.RecipeProtobuf;
+import nl.abnamro.recipes.encoding.RecipeProtobufHttpMessageConverter;
+import nl.abnamro.recipes.metrics.SlowQuery;
 import nl.abnamro.recipes.repository.IngredientRepository;
 import nl.abnamro.recipes.repository.RecipeRepository;
+import nl.abnamro.recipes.service.RecipeService;
 import nl.abnamro.recipes.utils.Errors;
 import nl.abnamro.recipes.utils.SampleData;
 import org.junit.jupiter.api.BeforeEach;
@@ -17,13 +27,27 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.server.LocalServerPort;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 
 import static io.restassured.RestAssured.given;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 
 @ExtendWith(MockitoExtension.class)
-@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+		properties = "recipes.slow-queries.min-duration=0ms")
 class RecipeControllerTest {
 
 	@LocalServerPort
@@ -35,12 +59,23 @@ class RecipeControllerTest {
 	@Autowired
 	private IngredientRepository ingredientRepository;
 
+	@Autowired
+	private RecipeService recipeService;
+
 	private List<RecipeDto> okRecipeList;
 
 	public static String URL_RECIPE = "/v1/recipe";
 
 	public static String URL_RECIPE_FIND = "/v1/recipe/find";
 
+	public static String URL_RECIPE_BATCH = "/v1/recipe/batch";
+
+	public static String URL_RECIPE_FACETS = "/v1/recipe/facets";
+
+	public static String URL_METRICS = "/actuator/metrics";
+
+	public static String URL_SLOW_QUERIES = "/actuator/slowqueries";
+
 	@BeforeEach
 	public void before() {
 		RestAssured.baseURI = "http://localhost:" + port + "/api";
@@ -50,6 +85,7 @@ class RecipeControllerTest {
 	public void cleanAndPrepareTests() {
 		recipeRepository.deleteAll();
 		ingredientRepository.deleteAll();
+		recipeService.rebuildIndex();
 
 		okRecipeList = SampleData.create();
 	}
@@ -147,6 +183,42 @@ class RecipeControllerTest {
 		assertThat(updatedRecipe.get().getTitle()).isEqualTo(title);
 	}
 
+	@Test
+	void updateStaleRecipe() {
+		var saved = given()
+				.body(okRecipeList.get(0))
+				.header(HttpHeaders.CONTENT_TYPE, ContentType.JSON)
+				.when()
+				.post(URL_RECIPE)
+				.then()
+				.statusCode(HttpStatus.OK.value())
+				.extract()
+				.as(RecipeDto.class);
+
+		saved.setTitle("Edited once");
+		given()
+				.body(saved)
+				.header(HttpHeaders.CONTENT_TYPE, ContentType.JSON)
+				.when()
+				.put(URL_RECIPE)
+				.then()
+				.statusCode(HttpStatus.OK.value());
+
+		saved.setTitle("Edited twice from the same version");
+		ErrorDto[] errors = given()
+				.body(saved)
+				.header(HttpHeaders.CONTENT_TYPE, ContentType.JSON)
+				.when()
+				.put(URL_RECIPE)
+				.then()
+				.statusCode(HttpStatus.CONFLICT.value())
+				.extract()
+				.as(ErrorDto[].class);
+
+		assertThat(errors[0].getField()).isEqualTo("version");
+		assertThat(errors[0].getMessage()).isEqualTo(Errors.RECIPE_VERSION_CONFLICT);
+	}
+
 	@Test
 	void putRecipe() {
 		var recipe = okRecipeList.get(0);
@@ -235,6 +307,69 @@ class RecipeControllerTest {
 		assertThat(errors[0].getMessage()).isEqualTo(Errors.RECIPE_NOT_FOUND);
 	}
 
+	@Test
+	void deleteRecipesInBulk() {
+		insertRecipesForFindTests();
+
+		var deleted = given()
+				.formParam("include", "carrot")
+				.when()
+				.delete(URL_RECIPE)
+				.then()
+				.statusCode(HttpStatus.OK.value())
+				.extract()
+				.as(DeleteResultDto.class);
+
+		assertThat(deleted.getDeleted()).isEqualTo(2);
+
+		var remaining = recipeRepository.findAllAttributes();
+		var ids = remaining.stream().map(r -> r.getRecipeId().toString()).collect(Collectors.joining(","));
+
+		deleted = given()
+				.queryParam("ids", ids + ",9999")
+				.when()
+				.delete(URL_RECIPE)
+				.then()
+				.statusCode(HttpStatus.OK.value())
+				.extract()
+				.as(DeleteResultDto.class);
+
+		assertThat(deleted.getDeleted()).isEqualTo(remaining.size());
+		assertThat(recipeRepository.count()).isZero();
+	}
+
+	@Test
+	void deleteRecipesInBulkWithoutCriteria() {
+		ErrorDto[] errors = given()
+				.when()
+				.delete(URL_RECIPE)
+				.then()
+				.statusCode(HttpStatus.BAD_REQUEST.value())
+				.extract()
+				.as(ErrorDto[].class);
+
+		assertThat(errors[0].getMessage()).isEqualTo(Errors.DELETE_WITHOUT_CRITERIA);
+	}
+
+	@Test
+	void deleteRecipesInBulkWithEmptyId() {
+		insertRecipesForFindTests();
+
+		ErrorDto[] errors = given()
+				.queryParam("ids", "1,,2")
+				.when()
+				.delete(URL_RECIPE)
+				.then()
+				.statusCode(HttpStatus.BAD_REQUEST.value())
+				.extract()
+				.as(ErrorDto[].class);
+
+		assertThat(errors.length).isEqualTo(1);
+		assertThat(errors[0].getField()).isEqualTo("ids");
+		assertThat(errors[0].getMessage()).isEqualTo(Errors.DELETE_EMPTY_ID);
+		assertThat(recipeRepository.count()).isEqualTo(okRecipeList.size());
+	}
+
 	@Test
 	void findByInstructions() {
 		insertRecipesForFindTests();
@@ -403,6 +538,521 @@ class RecipeControllerTest {
 		assertThat(recipes3.length).isEqualTo(0);
 	}
 
+	@Test
+	void findIncludeExcludeLists() {
+		insertRecipesForFindTests();
+
+		var recipes1 = given()
+				.header(HttpHeaders.CONTENT_TYPE, ContentType.JSON)
+				.formParam("include", "tomato", "basil")
+				.when()
+				.get(URL_RECIPE_FIND)
+				.then()
+				.statusCode(HttpStatus.OK.value())
+				.extract()
+				.as(RecipeDto[].class);
+
+		assertThat(recipes1.length).isEqualTo(1);
+		assertThat(recipes1[0].getTitle()).isEqualTo("Pad Thai");
+
+		var recipes2 = given()
+				.header(HttpHeaders.CONTENT_TYPE, ContentType.JSON)
+				.formParam("include", "tomato,basil")
+				.formParam("match", "any")
+				.formParam("exclude", "salmon,bean")
+				.when()
+				.get(URL_RECIPE_FIND)
+				.then()
+				.statusCode(HttpStatus.OK.value())
+				.extract()
+				.as(RecipeDto[].class);
+
+		assertThat(recipes2.length).isEqualTo(2);
+	}
+
+	@Test
+	void findWithInvalidMatch() {
+		ErrorDto[] errors = given()
+				.header(HttpHeaders.CONTENT_TYPE, ContentType.JSON)
+				.formParam("include", "tomato")
+				.formParam("match", "some")
+				.when()
+				.get(URL_RECIPE_FIND)
+				.then()
+				.statusCode(HttpStatus.BAD_REQUEST.value())
+				.extract()
+				.as(ErrorDto[].class);
+
+		assertThat(errors.length).isEqualTo(1);
+		assertThat(errors[0].getField()).isEqualTo("match");
+		assertThat(errors[0].getMessage()).isEqualTo(Errors.INVALID_MATCH);
+	}
+
+	@Test
+	void facetsCountMatchingRecipes() {
+		insertRecipesForFindTests();
+
+		var facets = given()
+				.header(HttpHeaders.CONTENT_TYPE, ContentType.JSON)
+				.formParam("include", "basil")
+				.when()
+				.get(URL_RECIPE_FACETS)
+				.then()
+				.statusCode(HttpStatus.OK.value())
+				.extract()
+				.as(FacetsDto.class);
+
+		assertThat(facets.getCount()).isEqualTo(3);
+		assertThat(facets.getVegetarian().get(true)).isEqualTo(3);
+		assertThat(facets.getIngredients().get(0).getTitle()).isEqualTo("Basil");
+		assertThat(facets.getIngredients().get(0).getCount()).isEqualTo(3);
+	}
+
+	@Test
+	void findAnswersCurrentEtagWithNotModified() {
+		insertRecipesForFindTests();
+
+		var carrotEtag = findEtag("carrot", null, HttpStatus.OK);
+		var allEtag = findEtag(null, null, HttpStatus.OK);
+
+		assertThat(carrotEtag).isNotNull();
+		assertThat(findEtag("carrot", carrotEtag, HttpStatus.NOT_MODIFIED)).isEqualTo(carrotEtag);
+
+		// A recipe without carrot changes the catalog but not the carrot recipes
+		postRecipe(RecipeDto.builder()
+				.title("Saffron Rice")
+				.instructions("Cook the rice with saffron")
+				.serves(2)
+				.vegetarian(true)
+				.ingredients(List.of("Saffron", "Rice"))
+				.build());
+
+		findEtag("carrot", carrotEtag, HttpStatus.NOT_MODIFIED);
+		findEtag(null, allEtag, HttpStatus.OK);
+
+		postRecipe(RecipeDto.builder()
+				.title("Carrot Soup")
+				.instructions("Boil the carrots and blend them")
+				.serves(4)
+				.vegetarian(true)
+				.ingredients(List.of("Carrot"))
+				.build());
+
+		var recipes = given()
+				.header(HttpHeaders.IF_NONE_MATCH, carrotEtag)
+				.formParam("include", "carrot")
+				.when()
+				.get(URL_RECIPE_FIND)
+				.then()
+				.statusCode(HttpStatus.OK.value())
+				.extract()
+				.as(RecipeDto[].class);
+
+		assertThat(recipes.length).isEqualTo(3);
+	}
+
+	@Test
+	void findEtagDependsOnThePageAndTheEncoding() {
+		insertRecipesForFindTests();
+
+		var firstPage = given()
+				.formParam("include", "carrot")
+				.formParam("limit", 1)
+				.when()
+				.get(URL_RECIPE_FIND)
+				.then()
+				.statusCode(HttpStatus.OK.value())
+				.extract()
+				.response();
+		assertThat(varyHeaders(firstPage.header(HttpHeaders.VARY))).contains("accept");
+		var firstEtag = firstPage.header(HttpHeaders.ETAG);
+		var cursor = firstPage.header(RecipeController.NEXT_CURSOR_HEADER);
+
+		// Same version of the matching recipes, but another page or encoding
+		var secondPage = given()
+				.header(HttpHeaders.IF_NONE_MATCH, firstEtag)
+				.formParam("include", "carrot")
+				.formParam("limit", 1)
+				.formParam("after", cursor)
+				.when()
+				.get(URL_RECIPE_FIND)
+				.then()
+				.statusCode(HttpStatus.OK.value())
+				.extract()
+				.as(RecipeDto[].class);
+		assertThat(secondPage).hasSize(1);
+
+		given()
+				.header(HttpHeaders.IF_NONE_MATCH, firstEtag)
+				.accept(RecipeProtobufHttpMessageConverter.APPLICATION_PROTOBUF_VALUE)
+				.formParam("include", "carrot")
+				.formParam("limit", 1)
+				.when()
+				.get(URL_RECIPE_FIND)
+				.then()
+				.statusCode(HttpStatus.OK.value())
+				.contentType(RecipeProtobufHttpMessageConverter.APPLICATION_PROTOBUF_VALUE);
+
+		var vary = given()
+				.header(HttpHeaders.IF_NONE_MATCH, firstEtag)
+				.formParam("include", "carrot")
+				.formParam("limit", 1)
+				.when()
+				.get(URL_RECIPE_FIND)
+				.then()
+				.statusCode(HttpStatus.NOT_MODIFIED.value())
+				.extract()
+				.header(HttpHeaders.VARY);
+		assertThat(varyHeaders(vary)).contains("accept");
+	}
+
+	private static List<String> varyHeaders(String vary) {
+		return Arrays.stream(vary.split(","))
+				.map(header -> header.trim().toLowerCase())
+				.collect(Collectors.toList());
+	}
+
+	@Test
+	void findInBinaryEncodings() throws Exception {
+		insertRecipesForFindTests();
+
+		var json = given()
+				.formParam("include", "carrot")
+				.when()
+				.get(URL_RECIPE_FIND)
+				.then()
+				.statusCode(HttpStatus.OK.value())
+				.extract()
+				.as(RecipeDto[].class);
+
+		var cbor = CBORMapper.builder().findAndAddModules().build().readValue(findEncoded("application/cbor"), RecipeDto[].class);
+		var smile = SmileMapper.builder().findAndAddModules().build().readValue(findEncoded("application/x-jackson-smile"), RecipeDto[].class);
+		var protobuf = RecipeProtobuf.readList(new ByteArrayInputStream(
+				findEncoded(RecipeProtobufHttpMessageConverter.APPLICATION_PROTOBUF_VALUE)));
+
+		assertThat(json.length).isEqualTo(2);
+		assertThat(cbor).containsExactly(json);
+		assertThat(smile).containsExactly(json);
+		assertThat(protobuf).containsExactly(json);
+	}
+
+	@Test
+	void largeResponsesAreCompressed() throws Exception {
+		given()
+				.formParam("count", 100)
+				.when()
+				.get(URL_RECIPE + "/sampledata")
+				.then()
+				.statusCode(HttpStatus.OK.value());
+
+		// The client of RestAssured removes Content-Encoding once it has decompressed the body
+		var request = HttpRequest.newBuilder(URI.create(RestAssured.baseURI + URL_RECIPE_FIND))
+				.header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+				.build();
+		var response = HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofByteArray());
+
+		assertThat(response.statusCode()).isEqualTo(HttpStatus.OK.value());
+		assertThat(response.headers().firstValue(HttpHeaders.CONTENT_ENCODING)).contains("gzip");
+
+		var recipes = new ObjectMapper().findAndRegisterModules().readValue(new GZIPInputStream(new ByteArrayInputStream(response.body())),
+				RecipeDto[].class);
+		assertThat(recipes.length).isEqualTo(100);
+	}
+
+	@Test
+	void findIsMeasuredPerShapeAndRequest() {
+		insertRecipesForFindTests();
+
+		given()
+				.header(HttpHeaders.CONTENT_TYPE, ContentType.JSON)
+				.formParam("include", "basil")
+				.formParam("vegetarian", true)
+				.when()
+				.get(URL_RECIPE_FIND)
+				.then()
+				.statusCode(HttpStatus.OK.value());
+
+		given()
+				.formParam("tag", "shape:include+vegetarian")
+				.when()
+				.get(URL_METRICS + "/recipes.find.rows")
+				.then()
+				.statusCode(HttpStatus.OK.value())
+				.body("measurements.find { it.statistic == 'TOTAL' }.value", greaterThanOrEqualTo(3f));
+
+		given()
+				.formParam("tag", "method:GET")
+				.formParam("tag", "uri:/v1/recipe/find")
+				.when()
+				.get(URL_METRICS + "/recipes.request.statements")
+				.then()
+				.statusCode(HttpStatus.OK.value())
+				.body("measurements.find { it.statistic == 'MAX' }.value", greaterThan(0f));
+	}
+
+	@Test
+	void slowQueriesKeepTheSlowestRequests() {
+		given().when().delete(URL_SLOW_QUERIES).then().statusCode(HttpStatus.NO_CONTENT.value());
+
+		insertRecipesForFindTests();
+
+		given()
+				.formParam("include", "basil")
+				.when()
+				.get(URL_RECIPE_FIND)
+				.then()
+				.statusCode(HttpStatus.OK.value());
+
+		SlowQuery[] slowest = given()
+				.when()
+				.get(URL_SLOW_QUERIES)
+				.then()
+				.statusCode(HttpStatus.OK.value())
+				.extract()
+				.as(SlowQuery[].class);
+
+		assertThat(slowest).extracting(SlowQuery::getOperation).contains("find", "write");
+		assertThat(slowest).isSortedAccordingTo((a, b) -> Long.compare(b.getTotalMicros(), a.getTotalMicros()));
+
+		var find = Arrays.stream(slowest).filter(x -> x.getOperation().equals("find")).findFirst().get();
+		assertThat(find.getEndpoint()).isEqualTo("GET /v1/recipe/find");
+		assertThat(find.getParameters()).contains("basil");
+		assertThat(find.getRows()).isEqualTo(3);
+		assertThat(find.getStatementCount()).isPositive();
+		assertThat(find.getStatements()).anyMatch(sql -> sql.toLowerCase().contains("recipe_ingredient"));
+	}
+
+	@Test
+	void findWithLimitFollowsCursor() {
+		insertRecipesForFindTests();
+
+		var firstPage = given()
+				.header(HttpHeaders.CONTENT_TYPE, ContentType.JSON)
+				.formParam("limit", 2)
+				.when()
+				.get(URL_RECIPE_FIND)
+				.then()
+				.statusCode(HttpStatus.OK.value())
+				.extract();
+
+		var recipes1 = firstPage.as(RecipeDto[].class);
+		var cursor1 = firstPage.header(RecipeController.NEXT_CURSOR_HEADER);
+
+		assertThat(recipes1.length).isEqualTo(2);
+		assertThat(cursor1).isNotNull();
+
+		var secondPage = given()
+				.header(HttpHeaders.CONTENT_TYPE, ContentType.JSON)
+				.formParam("limit", 2)
+				.formParam("after", cursor1)
+				.when()
+				.get(URL_RECIPE_FIND)
+				.then()
+				.statusCode(HttpStatus.OK.value())
+				.extract();
+
+		var recipes2 = secondPage.as(RecipeDto[].class);
+		var cursor2 = secondPage.header(RecipeController.NEXT_CURSOR_HEADER);
+
+		assertThat(recipes2.length).isEqualTo(2);
+		assertThat(recipes2[0].getRecipeId()).isGreaterThan(recipes1[1].getRecipeId());
+		assertThat(cursor2).isNotNull();
+
+		var lastPage = given()
+				.header(HttpHeaders.CONTENT_TYPE, ContentType.JSON)
+				.formParam("limit", 2)
+				.formParam("after", cursor2)
+				.when()
+				.get(URL_RECIPE_FIND)
+				.then()
+				.statusCode(HttpStatus.OK.value())
+				.extract();
+
+		assertThat(lastPage.as(RecipeDto[].class).length).isEqualTo(1);
+		assertThat(lastPage.header(RecipeController.NEXT_CURSOR_HEADER)).isNull();
+	}
+
+	@Test
+	void findWithInvalidCursor() {
+		ErrorDto[] errors = given()
+				.header(HttpHeaders.CONTENT_TYPE, ContentType.JSON)
+				.formParam("after", "not-a-cursor")
+				.when()
+				.get(URL_RECIPE_FIND)
+				.then()
+				.statusCode(HttpStatus.BAD_REQUEST.value())
+				.extract()
+				.as(ErrorDto[].class);
+
+		assertThat(errors.length).isEqualTo(1);
+		assertThat(errors[0].getField()).isEqualTo("after");
+		assertThat(errors[0].getMessage()).isEqualTo(Errors.INVALID_CURSOR);
+	}
+
+	@Test
+	void findWithNegativeCursor() {
+		insertRecipesForFindTests();
+
+		// The cursor of recipe id -5
+		var cursor = Base64.getUrlEncoder().withoutPadding().encodeToString("r:-5".getBytes(StandardCharsets.UTF_8));
+
+		ErrorDto[] errors = given()
+				.header(HttpHeaders.CONTENT_TYPE, ContentType.JSON)
+				.formParam("after", cursor)
+				.formParam("include", "rice")
+				.when()
+				.get(URL_RECIPE_FIND)
+				.then()
+				.statusCode(HttpStatus.BAD_REQUEST.value())
+				.extract()
+				.as(ErrorDto[].class);
+
+		assertThat(errors.length).isEqualTo(1);
+		assertThat(errors[0].getField()).isEqualTo("after");
+		assertThat(errors[0].getMessage()).isEqualTo(Errors.INVALID_CURSOR);
+	}
+
+	@Test
+	void findAsNdjsonStreamsEveryRecipe() {
+		insertRecipesForFindTests();
+
+		var body = given()
+				.header(HttpHeaders.ACCEPT, RecipeController.APPLICATION_NDJSON_VALUE)
+				.formParam("vegetarian", true)
+				.when()
+				.get(URL_RECIPE_FIND)
+				.then()
+				.statusCode(HttpStatus.OK.value())
+				.contentType(RecipeController.APPLICATION_NDJSON_VALUE)
+				.extract()
+				.asString();
+
+		var lines = body.split("\n");
+		assertThat(lines.length).isEqualTo(4);
+
+		for (var line : lines) {
+			assertThat(line).startsWith("{").contains("\"vegetarian\":true");
+		}
+	}
+
+	@Test
+	void saveBatchReportsEveryItem() {
+		var existing = okRecipeList.get(0);
+		given()
+				.body(existing)
+				.header(HttpHeaders.CONTENT_TYPE, ContentType.JSON)
+				.when()
+				.post(URL_RECIPE)
+				.then()
+				.statusCode(HttpStatus.OK.value());
+
+		var invalid = RecipeDto.builder().title("No instructions").serves(1).vegetarian(true)
+				.ingredients(List.of("Rice")).build();
+
+		var batch = new ArrayList<RecipeDto>(okRecipeList);
+		batch.add(okRecipeList.get(1));
+		batch.add(invalid);
+
+		BatchResultDto[] results = given()
+				.body(batch)
+				.header(HttpHeaders.CONTENT_TYPE, ContentType.JSON)
+				.when()
+				.post(URL_RECIPE_BATCH)
+				.then()
+				.statusCode(HttpStatus.OK.value())
+				.extract()
+				.as(BatchResultDto[].class);
+
+		assertThat(results.length).isEqualTo(7);
+		assertThat(results[0].getStatus()).isEqualTo(BatchResultDto.Status.CONFLICT);
+		assertThat(results[1].getStatus()).isEqualTo(BatchResultDto.Status.CREATED);
+		assertThat(results[1].getRecipeId()).isNotNull();
+		assertThat(results[5].getStatus()).isEqualTo(BatchResultDto.Status.CONFLICT);
+		assertThat(results[6].getStatus()).isEqualTo(BatchResultDto.Status.INVALID);
+		assertThat(results[6].getErrors().get(0).getField()).isEqualTo("instructions");
+
+		assertThat(recipeRepository.count()).isEqualTo(5);
+
+		var recipes = given()
+				.header(HttpHeaders.CONTENT_TYPE, ContentType.JSON)
+				.formParam("include", "basil")
+				.formParam("text", "ready")
+				.when()
+				.get(URL_RECIPE_FIND)
+				.then()
+				.statusCode(HttpStatus.OK.value())
+				.extract()
+				.as(RecipeDto[].class);
+
+		assertThat(recipes.length).isEqualTo(2);
+	}
+
+	@Test
+	void saveBatchFromNdjson() throws Exception {
+		var mapper = new ObjectMapper();
+		var body = new StringBuilder();
+		for (var recipe : okRecipeList) {
+			body.append(mapper.writeValueAsString(recipe)).append('\n');
+		}
+
+		BatchResultDto[] results = given()
+				.body(body.toString().getBytes(StandardCharsets.UTF_8))
+				.header(HttpHeaders.CONTENT_TYPE, RecipeController.APPLICATION_NDJSON_VALUE)
+				.when()
+				.post(URL_RECIPE_BATCH)
+				.then()
+				.statusCode(HttpStatus.OK.value())
+				.extract()
+				.as(BatchResultDto[].class);
+
+		assertThat(results).extracting(BatchResultDto::getStatus).containsOnly(BatchResultDto.Status.CREATED);
+
+		var savedRecipe = recipeRepository.findByTitle(okRecipeList.get(2).getTitle());
+		assertThat(savedRecipe.isPresent()).isTrue();
+		assertThat(savedRecipe.get().getIngredients()).hasSize(5);
+	}
+
+	private byte[] findEncoded(String mediaType) {
+		return given()
+				.accept(mediaType)
+				.formParam("include", "carrot")
+				.when()
+				.get(URL_RECIPE_FIND)
+				.then()
+				.statusCode(HttpStatus.OK.value())
+				.contentType(mediaType)
+				.extract()
+				.asByteArray();
+	}
+
+	private String findEtag(String include, String ifNoneMatch, HttpStatus status) {
+		var request = given();
+		if (include != null) {
+			request.formParam("include", include);
+		}
+		if (ifNoneMatch != null) {
+			request.header(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+		}
+
+		return request
+				.when()
+				.get(URL_RECIPE_FIND)
+				.then()
+				.statusCode(status.value())
+				.extract()
+				.header(HttpHeaders.ETAG);
+	}
+
+	private void postRecipe(RecipeDto recipe) {
+		given()
+				.body(recipe)
+				.header(HttpHeaders.CONTENT_TYPE, ContentType.JSON)
+				.when()
+				.post(URL_RECIPE)
+				.then()
+				.statusCode(HttpStatus.OK.value());
+	}
+
 	private void insertRecipesForFindTests() {
 		for (var recipe : okRecipeList) {
 			given()
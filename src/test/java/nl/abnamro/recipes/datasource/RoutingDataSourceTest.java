@@ -0,0 +1,152 @@
+package nl.abnamro.recipes.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.restassured.RestAssured;
+import io.restassured.http.ContentType;
+import nl.abnamro.recipes.dto.RecipeDto;
+import nl.abnamro.recipes.dto.RecipeFilter;
+import nl.abnamro.recipes.repository.IngredientRepository;
+import nl.abnamro.recipes.repository.RecipeRepository;
+import nl.abnamro.recipes.service.RecipeService;
+import nl.abnamro.recipes.utils.SampleData;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import java.util.List;
+
+import static io.restassured.RestAssured.given;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs against two embedded databases that do not replicate: whatever is
+ * written to the primary is never visible on the replica, so every read shows
+ * where it was routed.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+		"spring.datasource.url=jdbc:h2:mem:primary;MODE=MySQL;DB_CLOSE_DELAY=-1;IGNORECASE=TRUE",
+		"spring.datasource.driver-class-name=org.h2.Driver",
+		"spring.datasource.username=sa",
+		"spring.datasource.password=",
+		"spring.sql.init.mode=always",
+		"spring.sql.init.schema-locations=classpath:database/database.sql",
+		"recipes.datasource.replicas[0].url=jdbc:h2:mem:replica;MODE=MySQL;DB_CLOSE_DELAY=-1;IGNORECASE=TRUE;"
+				+ "INIT=RUNSCRIPT FROM 'classpath:database/replica.sql'",
+		"recipes.datasource.replicas[0].username=sa",
+		"recipes.datasource.replicas[0].password="
+})
+class RoutingDataSourceTest {
+
+	@LocalServerPort
+	int port;
+
+	@Autowired
+	private RecipeRepository recipeRepository;
+
+	@Autowired
+	private IngredientRepository ingredientRepository;
+
+	@Autowired
+	private RecipeService recipeService;
+
+	private List<RecipeDto> okRecipeList;
+
+	@BeforeEach
+	public void cleanAndPrepareTests() {
+		RestAssured.baseURI = "http://localhost:" + port + "/api";
+
+		recipeRepository.deleteAll();
+		ingredientRepository.deleteAll();
+		recipeService.rebuildIndex();
+
+		okRecipeList = SampleData.create();
+	}
+
+	@Test
+	void writesGoToThePrimaryAndReadsToTheReplica() {
+		var saved = recipeService.save(okRecipeList.get(0));
+		var filter = RecipeFilter.of(null, null, null, null, null);
+
+		assertThat(recipeService.find(filter, null, null).getContent()).isEmpty();
+
+		try (var primary = DataSourceRouting.primary()) {
+			var recipes = recipeService.find(filter, null, null).getContent();
+
+			assertThat(recipes).hasSize(1);
+			assertThat(recipes.get(0).getRecipeId()).isEqualTo(saved.getRecipeId());
+		}
+
+		assertThat(DataSourceRouting.isPrimaryRequired()).isFalse();
+	}
+
+	@Test
+	void clientsReadTheirWritesWithTheLastWriteHeader() {
+		var lastWrite = given()
+				.body(okRecipeList.get(0))
+				.header(HttpHeaders.CONTENT_TYPE, ContentType.JSON)
+				.when()
+				.post("/v1/recipe")
+				.then()
+				.statusCode(HttpStatus.OK.value())
+				.extract()
+				.header(ReadYourWritesFilter.LAST_WRITE_HEADER);
+
+		assertThat(lastWrite).isNotNull();
+
+		var fromReplica = given()
+				.when()
+				.get("/v1/recipe/find")
+				.then()
+				.statusCode(HttpStatus.OK.value())
+				.extract()
+				.as(RecipeDto[].class);
+
+		assertThat(fromReplica).isEmpty();
+
+		var fromPrimary = given()
+				.header(ReadYourWritesFilter.LAST_WRITE_HEADER, lastWrite)
+				.when()
+				.get("/v1/recipe/find")
+				.then()
+				.statusCode(HttpStatus.OK.value())
+				.extract()
+				.as(RecipeDto[].class);
+
+		assertThat(fromPrimary).hasSize(1);
+		assertThat(fromPrimary[0].getTitle()).isEqualTo(okRecipeList.get(0).getTitle());
+	}
+
+	@Test
+	void destroyingTheDataSourceClosesEveryPool() throws Exception {
+		var primaryProperties = new DataSourceProperties();
+		primaryProperties.setUrl("jdbc:h2:mem:closing-primary");
+		primaryProperties.setUsername("sa");
+
+		var replica = new ReplicaProperties.Replica();
+		replica.setUrl("jdbc:h2:mem:closing-replica");
+		replica.setUsername("sa");
+
+		var replicaProperties = new ReplicaProperties();
+		replicaProperties.getReplicas().add(replica);
+
+		var dataSource = new DataSourceConfiguration().dataSource(primaryProperties, replicaProperties);
+		var routing = (RoutingDataSource) ((LazyConnectionDataSourceProxy) dataSource).getTargetDataSource();
+		var pools = routing.getResolvedDataSources().values();
+
+		try (var connection = dataSource.getConnection()) {
+			assertThat(connection.isValid(1)).isTrue();
+		}
+
+		assertThat(dataSource).isInstanceOf(DisposableBean.class);
+		((DisposableBean) dataSource).destroy();
+
+		assertThat(pools).hasSize(2).allMatch(pool -> ((HikariDataSource) pool).isClosed());
+	}
+}
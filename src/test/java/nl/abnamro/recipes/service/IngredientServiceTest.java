@@ -0,0 +1,182 @@
+package nl.abnamro.recipes.service;
+
+import nl.abnamro.recipes.domain.Ingredient;
+import nl.abnamro.recipes.metrics.RequestProfile;
+import nl.abnamro.recipes.repository.IngredientRepository;
+import nl.abnamro.recipes.repository.RecipeRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest
+class IngredientServiceTest {
+
+	private static final int WRITERS = 16;
+
+	@Autowired
+	private RecipeRepository recipeRepository;
+
+	@Autowired
+	private IngredientRepository ingredientRepository;
+
+	@Autowired
+	private IngredientService ingredientService;
+
+	@Autowired
+	private RecipeService recipeService;
+
+	@BeforeEach
+	public void cleanAndPrepareTests() {
+		recipeRepository.deleteAll();
+		ingredientRepository.deleteAll();
+		recipeService.rebuildIndex();
+	}
+
+	@Test
+	void whenManyWritersCreateOverlappingIngredients_noneShouldFail() throws Exception {
+		var shared = new ArrayList<String>();
+		for (int i = 0; i < 100; i++) {
+			shared.add("Shared spice " + i);
+		}
+
+		var rounds = 50;
+		var results = runConcurrently(writer -> {
+			var random = new Random(writer);
+			var seen = new HashMap<String, Integer>();
+
+			for (int round = 0; round < rounds; round++) {
+				var titles = new ArrayList<>(shared.subList(0, 10 + random.nextInt(20)));
+				Collections.shuffle(titles, random);
+				// Some writers use another case, the title is the same ingredient
+				if (writer % 2 == 0) {
+					titles.replaceAll(String::toUpperCase);
+				}
+				titles.add("Spice of writer " + writer + " round " + round);
+
+				for (var ingredient : ingredientService.getOrCreate(titles)) {
+					seen.put(ingredient.getTitle().toLowerCase(), ingredient.getIngredientId());
+				}
+			}
+
+			return seen;
+		});
+
+		var ids = new HashMap<String, Integer>();
+		for (var seen : results) {
+			seen.forEach((title, id) -> assertThat(ids.computeIfAbsent(title, key -> id)).isEqualTo(id));
+		}
+
+		var usedShared = ids.keySet().stream().filter(title -> title.startsWith("shared")).count();
+		assertThat(ingredientRepository.count()).isEqualTo(usedShared + WRITERS * rounds);
+	}
+
+	@Test
+	void whenWritersNeedTheSameNewIngredient_itShouldBeInsertedOnce() throws Exception {
+		var results = runConcurrently(writer -> {
+			var profile = RequestProfile.current();
+			profile.start();
+			try {
+				var ingredients = ingredientService.getOrCreate(List.of("Black truffle"));
+				return Map.of(ingredients.get(0), countInserts(profile));
+			} finally {
+				profile.stop();
+			}
+		});
+
+		var inserts = 0;
+		var ingredients = new ArrayList<Ingredient>();
+		for (var result : results) {
+			ingredients.addAll(result.keySet());
+			inserts += result.values().iterator().next();
+		}
+
+		assertThat(ingredients).hasSize(WRITERS).containsOnly(ingredients.get(0));
+		assertThat(inserts).isEqualTo(1);
+		assertThat(ingredientRepository.count()).isEqualTo(1);
+	}
+
+	@Test
+	void whenTitleIsAnAccentVariantOfAnIngredient_itShouldResolveLikeTheDatabase() {
+		ingredientService.getOrCreate(List.of("Creme fraiche"));
+
+		var variant = ingredientService.getOrCreate(List.of("Crème fraîche")).get(0);
+
+		// The collation decides whether the accents make another ingredient
+		var stored = ingredientRepository.findByTitle("Crème fraîche").orElseThrow();
+		assertThat(variant.getIngredientId()).isEqualTo(stored.getIngredientId());
+		assertThat(ingredientService.getOrCreate(List.of("CRÈME FRAÎCHE"))).containsExactly(variant);
+
+		var both = ingredientService.getOrCreate(List.of("Creme fraiche", "Crème fraîche"));
+		assertThat(both).hasSize(2);
+		assertThat(both.get(1)).isEqualTo(variant);
+		assertThat(both.get(0).getIngredientId())
+				.isEqualTo(ingredientRepository.findByTitle("Creme fraiche").orElseThrow().getIngredientId());
+	}
+
+	@Test
+	void whenTitleDoesNotFitTheColumn_itShouldNotBeStored() {
+		var title = "Spice ".repeat(20);
+
+		assertThatThrownBy(() -> ingredientService.getOrCreate(List.of("Salt", title)))
+				.isInstanceOf(DataIntegrityViolationException.class);
+		assertThat(ingredientRepository.count()).isZero();
+	}
+
+	private static int countInserts(RequestProfile profile) {
+		var inserts = 0;
+		for (int i = 0; i < Math.min(profile.getStatementCount(), RequestProfile.MAX_STATEMENTS); i++) {
+			if (profile.getStatement(i).startsWith("INSERT INTO ingredient")) {
+				inserts++;
+			}
+		}
+		return inserts;
+	}
+
+	/**
+	 * Runs the task in {@link #WRITERS} threads that start at the same time and
+	 * returns their results; any failure fails the test.
+	 */
+	private static <T> List<T> runConcurrently(Task<T> task) throws Exception {
+		var executor = Executors.newFixedThreadPool(WRITERS);
+		var start = new CyclicBarrier(WRITERS);
+
+		try {
+			var futures = new ArrayList<Future<T>>();
+			for (int i = 0; i < WRITERS; i++) {
+				var writer = i;
+				futures.add(executor.submit((Callable<T>) () -> {
+					start.await();
+					return task.run(writer);
+				}));
+			}
+
+			var results = new ArrayList<T>();
+			for (var future : futures) {
+				results.add(future.get());
+			}
+			return results;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private interface Task<T> {
+		T run(int writer) throws Exception;
+	}
+}
@@ -1,19 +1,35 @@
 package nl.abnamro.recipes.service;
 
+import nl.abnamro.recipes.dto.BatchResultDto;
 import nl.abnamro.recipes.dto.ErrorDto;
+import nl.abnamro.recipes.dto.FacetsDto;
 import nl.abnamro.recipes.dto.RecipeDto;
+import nl.abnamro.recipes.dto.RecipeFilter;
+import nl.abnamro.recipes.index.RecipeIndex;
+import nl.abnamro.recipes.metrics.RequestProfile;
 import nl.abnamro.recipes.repository.IngredientRepository;
 import nl.abnamro.recipes.repository.RecipeRepository;
 import nl.abnamro.recipes.service.exception.AlreadyExistException;
+import nl.abnamro.recipes.service.exception.ConflictException;
 import nl.abnamro.recipes.service.exception.NotFoundException;
+import nl.abnamro.recipes.utils.CatalogGenerator;
 import nl.abnamro.recipes.utils.Errors;
 import nl.abnamro.recipes.utils.SampleData;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Slice;
+import org.springframework.jdbc.core.JdbcTemplate;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
 import static io.restassured.RestAssured.given;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -31,6 +47,18 @@ class RecipeServiceTest {
 	@Autowired
 	private RecipeService recipeService;
 
+	@Autowired
+	private RecipeBatchService recipeBatchService;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private IngredientService ingredientService;
+
+	@Autowired
+	private RecipeIndex recipeIndex;
+
 	private List<RecipeDto> okRecipeList;
 
 
@@ -38,6 +66,7 @@ class RecipeServiceTest {
 	public void cleanAndPrepareTests() {
 		recipeRepository.deleteAll();
 		ingredientRepository.deleteAll();
+		recipeService.rebuildIndex();
 
 		okRecipeList = SampleData.create();
 	}
@@ -100,6 +129,189 @@ class RecipeServiceTest {
 		assertThat(updatedRecipe.get().getTitle()).isEqualTo(title);
 	}
 
+	@Test
+	void whenUpdateRecipeWithStaleVersion_throwConflictException() {
+		var saved = recipeService.save(okRecipeList.get(0));
+		assertThat(saved.getVersion()).isEqualTo(0);
+
+		saved.setTitle("First edit");
+		var updated = recipeService.saveOrUpdate(saved);
+		assertThat(updated.getVersion()).isEqualTo(1);
+
+		saved.setTitle("Second edit, from the same read");
+		var exception = assertThrows(ConflictException.class, () -> recipeService.saveOrUpdate(saved));
+		assertThat(exception.getErrors().get(0).getMessage()).isEqualTo(Errors.RECIPE_VERSION_CONFLICT);
+
+		updated.setTitle("Second edit");
+		assertThat(recipeService.saveOrUpdate(updated).getVersion()).isEqualTo(2);
+		assertThat(recipeRepository.findByTitle("Second edit")).isPresent();
+	}
+
+	@Test
+	void whenUpdateRecipeConcurrently_onlyOneUpdateShouldWin() throws Exception {
+		var saved = recipeService.save(okRecipeList.get(0));
+		var executor = Executors.newFixedThreadPool(4);
+
+		try {
+			var futures = new ArrayList<Future<RecipeDto>>();
+			for (int i = 0; i < 4; i++) {
+				var edit = RecipeDto.builder()
+						.recipeId(saved.getRecipeId())
+						.version(saved.getVersion())
+						.title("Concurrent edit " + i)
+						.instructions(saved.getInstructions())
+						.serves(saved.getServes())
+						.vegetarian(saved.getVegetarian())
+						.ingredients(saved.getIngredients())
+						.build();
+				futures.add(executor.submit(() -> recipeService.saveOrUpdate(edit)));
+			}
+
+			var succeeded = 0;
+			for (var future : futures) {
+				try {
+					future.get();
+					succeeded++;
+				} catch (ExecutionException e) {
+					assertThat(e.getCause()).isInstanceOf(ConflictException.class);
+				}
+			}
+
+			assertThat(succeeded).isEqualTo(1);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	void whenUpdateRecipeConcurrently_findShouldAgreeWithTheDatabase() throws Exception {
+		var saved = recipeService.save(okRecipeList.get(0));
+		var executor = Executors.newFixedThreadPool(8);
+
+		try {
+			var futures = new ArrayList<Future<RecipeDto>>();
+			for (int i = 0; i < 64; i++) {
+				// Without a version every update applies, in the order the writers commit
+				var edit = RecipeDto.builder()
+						.recipeId(saved.getRecipeId())
+						.title(saved.getTitle())
+						.instructions(saved.getInstructions())
+						.serves(1 + i % 4)
+						.vegetarian(saved.getVegetarian())
+						.ingredients(List.of("Spice " + i % 4, "Rice"))
+						.build();
+				futures.add(executor.submit(() -> recipeService.saveOrUpdate(edit)));
+			}
+
+			for (var future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		var stored = recipeRepository.findById(saved.getRecipeId()).orElseThrow();
+		for (int i = 0; i < 4; i++) {
+			var spice = "Spice " + i;
+			var uses = stored.getIngredients().stream().anyMatch(ingredient -> ingredient.getTitle().equals(spice));
+
+			assertThat(recipeService.find("", spice, "", null, null)).hasSize(uses ? 1 : 0);
+			assertThat(recipeService.find("", "", "", 1 + i, null)).hasSize(stored.getServes() == 1 + i ? 1 : 0);
+		}
+	}
+
+	@Test
+	void whenUpdateOneIngredient_onlyTheChangedLinksShouldBeWritten() {
+		var ingredients = new ArrayList<String>();
+		for (int i = 0; i < 30; i++) {
+			ingredients.add("Spice " + i);
+		}
+
+		var saved = recipeService.save(RecipeDto.builder()
+				.title("Spice mix")
+				.instructions("Grind all the spices")
+				.vegetarian(true)
+				.serves(8)
+				.ingredients(ingredients)
+				.build());
+
+		var edited = new ArrayList<>(ingredients);
+		edited.set(7, "Spice 30");
+		saved.setIngredients(edited);
+
+		var profile = RequestProfile.current();
+		profile.start();
+		try {
+			recipeService.saveOrUpdate(saved);
+		} finally {
+			profile.stop();
+		}
+
+		var linkStatements = new ArrayList<String>();
+		for (int i = 0; i < Math.min(profile.getStatementCount(), RequestProfile.MAX_STATEMENTS); i++) {
+			if (profile.getStatement(i).contains("recipe_ingredient")) {
+				linkStatements.add(profile.getStatement(i));
+			}
+		}
+
+		assertThat(linkStatements).hasSize(3);
+		assertThat(linkStatements.get(0)).startsWith("SELECT");
+		assertThat(linkStatements.get(1)).startsWith("DELETE").contains("ingredient_id IN");
+		assertThat(linkStatements.get(2)).startsWith("INSERT");
+
+		var found = recipeService.find(null, "Spice 30", null, null, null);
+		assertThat(found).hasSize(1);
+		assertThat(found.get(0).getIngredients()).containsExactlyInAnyOrderElementsOf(edited);
+	}
+
+	@Test
+	void whenSaveRecipe_linksShouldBeInsertedWithOneBatch() {
+		var ingredients = new ArrayList<String>();
+		for (int i = 0; i < 30; i++) {
+			ingredients.add("Herb " + i);
+		}
+
+		var profile = RequestProfile.current();
+		profile.start();
+		try {
+			recipeService.save(RecipeDto.builder()
+					.title("Herb mix")
+					.instructions("Chop all the herbs")
+					.vegetarian(true)
+					.serves(4)
+					.ingredients(ingredients)
+					.build());
+		} finally {
+			profile.stop();
+		}
+
+		var inserts = new ArrayList<String>();
+		for (int i = 0; i < Math.min(profile.getStatementCount(), RequestProfile.MAX_STATEMENTS); i++) {
+			if (profile.getStatement(i).toLowerCase().startsWith("insert")) {
+				inserts.add(profile.getStatement(i));
+			}
+		}
+
+		// One batch each for the ingredients, the recipe and its links
+		assertThat(inserts).hasSize(3);
+	}
+
+	@Test
+	void whenImportAndSaveRecipes_idsShouldNotCollide() {
+		var generator = new CatalogGenerator(7);
+		var imported = recipeBatchService.importAll(generator.recipes(50));
+		var saved = recipeService.save(okRecipeList.get(0));
+		var importedAgain = recipeBatchService.importAll(generator.list(60).subList(50, 60).iterator());
+
+		var ids = new ArrayList<Integer>();
+		imported.forEach(result -> ids.add(result.getRecipeId()));
+		ids.add(saved.getRecipeId());
+		importedAgain.forEach(result -> ids.add(result.getRecipeId()));
+
+		assertThat(ids).hasSize(61).doesNotContainNull().doesNotHaveDuplicates();
+		assertThat(recipeRepository.count()).isEqualTo(61);
+	}
+
 	@Test
 	void whenUpdateRecipe_throwNotFoundException() {
 		var recipe = okRecipeList.get(0);
@@ -130,6 +342,22 @@ class RecipeServiceTest {
 		assertThat(recipeFromDB).isNotPresent();
 	}
 
+	@Test
+	void whenDeleteGeneratedCatalogByFilter_onlyMatchingRecipesShouldRemain() {
+		var catalog = new CatalogGenerator(13).list(2500);
+		recipeBatchService.importAll(catalog.iterator());
+
+		var filter = RecipeFilter.of(null, null, null, null, true);
+		var result = recipeService.deleteAll(List.of(), filter);
+
+		var vegetarian = catalog.stream().filter(RecipeDto::getVegetarian).count();
+		assertThat(result.getDeleted()).isEqualTo(vegetarian);
+		assertThat(recipeRepository.count()).isEqualTo(catalog.size() - vegetarian);
+		assertThat(recipeService.find(filter, null, null).getContent()).isEmpty();
+		assertThat(recipeService.facets(RecipeFilter.of(null, null, null, null, null), 1).getCount())
+				.isEqualTo(catalog.size() - vegetarian);
+	}
+
 	@Test
 	void whenDeleteNonExistentRecipe_shouldThrowNotFoundException() {
 		// recipeId that does not exist
@@ -154,6 +382,73 @@ class RecipeServiceTest {
 		assertThat(recipes.get(0).getInstructions()).contains("vegetables");
 	}
 
+	@Test
+	void whenFindByTextWithLikeWildcards_wildcardsShouldMatchThemselves() {
+		insertRecipesForFindTests();
+
+		var recipe = okRecipeList.get(0);
+		recipe.setTitle("100% Rye_Bread");
+		recipeService.save(recipe);
+
+		assertThat(recipeService.find("%", "", "", null, null)).hasSize(1);
+		assertThat(recipeService.find("_", "", "", null, null)).hasSize(1);
+		assertThat(recipeService.find("0%", "", "", null, null)).hasSize(1);
+		assertThat(recipeService.find("e_b", "", "", null, null)).hasSize(1);
+		assertThat(recipeService.find("mix%cook", "", "", null, null)).isEmpty();
+	}
+
+	@Test
+	void whenFindByTextWithExpandingLetters_databaseShouldDecide() {
+		insertRecipesForFindTests();
+
+		var recipe = okRecipeList.get(0);
+		recipe.setTitle("Flæskesteg");
+		var saved = recipeService.save(recipe);
+
+		assertThat(recipeService.find("flæske", "", "", null, null)).hasSize(1);
+
+		// Whether æ matches ae is up to the collation, the index must not rule it out
+		var expected = jdbcTemplate.queryForObject(
+				"SELECT COUNT(*) FROM recipe WHERE title LIKE '%flaeske%' OR instructions LIKE '%flaeske%'", Integer.class);
+		assertThat(recipeService.find("flaeske", "", "", null, null)).hasSize(expected);
+		assertThat(RecipeFilter.of("flaeske", null, null, null, null).matches(saved)).isTrue();
+	}
+
+	@Test
+	void whenFindGeneratedCatalog_everyShapeShouldMatchTheFilter() {
+		var generator = new CatalogGenerator(11);
+		var catalog = generator.list(3000);
+		recipeBatchService.importAll(catalog.iterator());
+
+		for (int shape = 0; shape < 32; shape++) {
+			for (var match : RecipeFilter.Match.values()) {
+				var filter = RecipeFilter.of(
+						(shape & 1) != 0 ? "curry" : null,
+						(shape & 2) != 0 ? List.of(generator.ingredient(0), generator.ingredient(2)) : List.of(),
+						match,
+						(shape & 4) != 0 ? List.of(generator.ingredient(1)) : List.of(),
+						(shape & 8) != 0 ? 2 : null,
+						(shape & 16) != 0 ? Boolean.TRUE : null);
+
+				var expected = catalog.stream()
+						.filter(filter::matches)
+						.map(RecipeDto::getTitle)
+						.collect(Collectors.toList());
+
+				var found = new ArrayList<String>();
+				Integer after = null;
+				Slice<RecipeDto> page;
+				do {
+					page = recipeService.find(filter, after, 1000);
+					page.forEach(recipe -> found.add(recipe.getTitle()));
+					after = page.isEmpty() ? null : page.getContent().get(page.getNumberOfElements() - 1).getRecipeId();
+				} while (page.hasNext());
+
+				assertThat(found).as(filter.shape() + " " + match).isEqualTo(expected);
+			}
+		}
+	}
+
 	@Test
 	void whenFindByServings_shouldBeEqual() {
 		insertRecipesForFindTests();
@@ -179,12 +474,12 @@ class RecipeServiceTest {
 
 		var ingredientCount1 = recipes.get(0).getIngredients()
 				.stream()
-				.filter(x -> x.getTitle().equals("Carrot"))
+				.filter(x -> x.equals("Carrot"))
 				.count();
 
 		var ingredientCount2 = recipes.get(1).getIngredients()
 				.stream()
-				.filter(x -> x.getTitle().equals("Carrot"))
+				.filter(x -> x.equals("Carrot"))
 				.count();
 
 		assertThat(ingredientCount1).isEqualTo(1);
@@ -200,17 +495,17 @@ class RecipeServiceTest {
 
 		var ingredientCount1 = recipes.get(0).getIngredients()
 				.stream()
-				.filter(x -> x.getTitle().equals("Carrot"))
+				.filter(x -> x.equals("Carrot"))
 				.count();
 
 		var ingredientCount2 = recipes.get(1).getIngredients()
 				.stream()
-				.filter(x -> x.getTitle().equals("Carrot"))
+				.filter(x -> x.equals("Carrot"))
 				.count();
 
 		var ingredientCount3= recipes.get(2).getIngredients()
 				.stream()
-				.filter(x -> x.getTitle().equals("Carrot"))
+				.filter(x -> x.equals("Carrot"))
 				.count();
 
 		assertThat(ingredientCount1).isEqualTo(0);
@@ -228,18 +523,255 @@ class RecipeServiceTest {
 
 		var ingredientCountBasil= recipes.get(0).getIngredients()
 				.stream()
-				.filter(x -> x.getTitle().equals("Basil"))
+				.filter(x -> x.equals("Basil"))
 				.count();
 
 		var ingredientCountCarrot= recipes.get(0).getIngredients()
 				.stream()
-				.filter(x -> x.getTitle().equals("Carrot"))
+				.filter(x -> x.equals("Carrot"))
 				.count();
 
 		assertThat(ingredientCountBasil).isEqualTo(1);
 		assertThat(ingredientCountCarrot).isEqualTo(0);
 	}
 
+	@Test
+	void whenFindByIncludeAllWithManyCandidates_collationVariantsShouldCountOnce() {
+		var catalog = new ArrayList<RecipeDto>();
+		for (int i = 0; i < 1100; i++) {
+			catalog.add(RecipeDto.builder()
+					.title("Creme dessert " + i)
+					.instructions("Whip the cream with the sugar")
+					.serves(2)
+					.vegetarian(true)
+					.ingredients(List.of("Creme", "Sugar"))
+					.build());
+		}
+		recipeBatchService.importAll(catalog.iterator());
+
+		// More candidates than are bound as a list, so the include filter runs in the database
+		var both = RecipeFilter.of(null, List.of("creme", "sugar"), RecipeFilter.Match.ALL, null, null, null);
+		assertThat(streamAll(both)).hasSize(1100);
+
+		// Whether the accent makes another ingredient is up to the collation, the index knows either way
+		ingredientService.getOrCreate(List.of("Crème"));
+		var variants = RecipeFilter.of(null, List.of("creme", "crème"), RecipeFilter.Match.ALL, null, null, null);
+		assertThat(streamAll(variants)).hasSize(recipeIndex.recipesWithAll(variants.getInclude()).getCardinality());
+	}
+
+	@Test
+	void whenFindByIngredientLists_shouldCombineThem() {
+		insertRecipesForFindTests();
+
+		var all = recipeService.find(RecipeFilter.of(null, List.of("Tomato", "BASIL"), RecipeFilter.Match.ALL,
+				List.of("Salmon", "Bean"), null, null), null, null).getContent();
+		assertThat(all).extracting(RecipeDto::getTitle).containsExactly("Pad Thai");
+
+		var any = recipeService.find(RecipeFilter.of(null, List.of("Tomato", "Basil"), RecipeFilter.Match.ANY,
+				List.of("Salmon", "Bean"), null, null), null, null).getContent();
+		assertThat(any).extracting(RecipeDto::getTitle).containsExactly("Red Curry", "Pad Thai");
+
+		var unknown = recipeService.find(RecipeFilter.of(null, List.of("Tomato", "Truffle"), RecipeFilter.Match.ALL,
+				null, null, null), null, null).getContent();
+		assertThat(unknown).isEmpty();
+	}
+
+	@Test
+	void whenFindAfterNegativeId_shouldStartAtTheFirstRecipe() {
+		insertRecipesForFindTests();
+
+		var filter = RecipeFilter.of(null, List.of("Tomato", "Basil"), RecipeFilter.Match.ANY, null, null, null);
+		var fromStart = recipeService.find(filter, null, null).getContent();
+		var afterNegative = recipeService.find(filter, -5, null).getContent();
+
+		assertThat(afterNegative).isEqualTo(fromStart);
+	}
+
+	@Test
+	void whenFacets_countsShouldFollowMatchingRecipes() {
+		insertRecipesForFindTests();
+
+		var vegetarian = recipeService.facets(RecipeFilter.of(null, null, null, null, true), 2);
+		assertThat(vegetarian.getCount()).isEqualTo(4);
+		assertThat(vegetarian.getVegetarian()).containsOnly(Map.entry(true, 4L));
+		assertThat(vegetarian.getServes()).containsOnly(Map.entry(1, 1L), Map.entry(2, 2L), Map.entry(4, 1L));
+		assertThat(vegetarian.getIngredients()).containsExactly(
+				new FacetsDto.IngredientCount("Basil", 3), new FacetsDto.IngredientCount("Carrot", 2));
+
+		var fried = recipeService.facets(RecipeFilter.of("fry", null, null, null, null), null);
+		assertThat(fried.getCount()).isEqualTo(2);
+		assertThat(fried.getServes()).containsOnly(Map.entry(1, 1L), Map.entry(2, 1L));
+		assertThat(fried.getIngredients()).hasSize(4);
+	}
+
+	@Test
+	void whenUpdateRecipeIngredients_findShouldFollowNewIngredients() {
+		insertRecipesForFindTests();
+
+		var recipe = okRecipeList.get(0);
+		var savedRecipe = recipeRepository.findByTitle(recipe.getTitle());
+
+		recipe.setRecipeId(savedRecipe.get().getRecipeId());
+		recipe.setIngredients(Arrays.asList("Rice", "Potato"));
+		recipeService.saveOrUpdate(recipe);
+
+		var withCarrot = recipeService.find("", "carrot", "", null, null);
+		assertThat(withCarrot.size()).isEqualTo(1);
+
+		var withoutPotato = recipeService.find("", "", "potato", null, null);
+		assertThat(withoutPotato.size()).isEqualTo(3);
+
+		recipeService.delete(recipe.getRecipeId());
+
+		var withRice = recipeService.find("", "rice", "", null, null);
+		assertThat(withRice.size()).isEqualTo(1);
+	}
+
+	@Test
+	void whenUpdateRecipeTitle_findByTextShouldFollowNewTitle() {
+		insertRecipesForFindTests();
+
+		var recipe = okRecipeList.get(0);
+		var savedRecipe = recipeRepository.findByTitle(recipe.getTitle());
+
+		recipe.setRecipeId(savedRecipe.get().getRecipeId());
+		recipe.setTitle("Green Curry");
+		recipeService.saveOrUpdate(recipe);
+
+		assertThat(recipeService.find("red curry", "", "", null, null).size()).isEqualTo(0);
+		assertThat(recipeService.find("GREEN", "", "", null, null).size()).isEqualTo(1);
+		assertThat(recipeService.find("fry", "", "", null, null).size()).isEqualTo(2);
+	}
+
+	@Test
+	void whenSaveRecipesWithSharedIngredients_ingredientsShouldBeCreatedOnce() {
+		var recipe = okRecipeList.get(0);
+		recipe.setIngredients(Arrays.asList("Tomato", "tomato", "Basil", "Rice"));
+
+		var saved = recipeService.save(recipe);
+		assertThat(saved.getIngredients()).containsExactly("Tomato", "Basil", "Rice");
+
+		var other = okRecipeList.get(1);
+		other.setIngredients(Arrays.asList("BASIL", "Salmon"));
+		recipeService.save(other);
+
+		assertThat(ingredientRepository.count()).isEqualTo(4);
+	}
+
+	@Test
+	void whenFindRecipesWithSharedIngredient_titleShouldBeCanonical() {
+		var recipe = okRecipeList.get(0);
+		recipe.setIngredients(Arrays.asList("Tomato", "Basil"));
+		var saved = recipeService.save(recipe);
+
+		var other = okRecipeList.get(1);
+		other.setIngredients(Arrays.asList("TOMATO", "Salmon"));
+		var otherSaved = recipeService.save(other);
+
+		assertThat(otherSaved.getIngredients().get(0)).isSameAs(saved.getIngredients().get(0));
+
+		var found = recipeService.find(null, "tomato", null, null, null);
+		assertThat(found).hasSize(2);
+		var tomatoes = found.stream()
+				.map(x -> x.getIngredients().get(x.getIngredients().indexOf("Tomato")))
+				.collect(Collectors.toList());
+		assertThat(tomatoes.get(1)).isSameAs(tomatoes.get(0));
+	}
+
+	@Test
+	void whenSaveRecipesConcurrently_sharedNewIngredientsShouldNotFail() throws Exception {
+		var executor = Executors.newFixedThreadPool(8);
+		var futures = new ArrayList<Future<RecipeDto>>();
+
+		for (int i = 0; i < 16; i++) {
+			var recipe = RecipeDto.builder()
+					.title("Concurrent recipe " + i)
+					.instructions("Mix everything")
+					.vegetarian(true)
+					.serves(2)
+					.ingredients(Arrays.asList("Saffron", "Leek", "Ingredient " + i))
+					.build();
+
+			futures.add(executor.submit(() -> recipeService.save(recipe)));
+		}
+
+		for (var future : futures) {
+			assertThat(future.get().getIngredients()).hasSize(3);
+		}
+
+		executor.shutdown();
+		assertThat(ingredientRepository.count()).isEqualTo(18);
+	}
+
+	@Test
+	void whenSaveAfterCachedFind_findShouldReturnNewRecipe() {
+		recipeService.save(okRecipeList.get(0));
+
+		var before = recipeService.find(null, null, null, null, null);
+		assertThat(before).hasSize(1);
+
+		recipeService.save(okRecipeList.get(1));
+		assertThat(recipeService.find(null, null, null, null, null)).hasSize(2);
+	}
+
+	@Test
+	void whenDeleteAfterCachedFind_findShouldNotReturnDeletedRecipe() {
+		var saved = recipeService.save(okRecipeList.get(0));
+
+		assertThat(recipeService.find(null, null, null, null, null)).hasSize(1);
+
+		recipeService.delete(saved.getRecipeId());
+		assertThat(recipeService.find(null, null, null, null, null)).isEmpty();
+	}
+
+	@Test
+	void whenImportGeneratedCatalog_sameSeedShouldGiveSameRecipes() {
+		var catalog = new CatalogGenerator(7).list(300);
+		assertThat(new CatalogGenerator(7).list(300)).isEqualTo(catalog);
+		assertThat(new CatalogGenerator(7).list(100)).isEqualTo(catalog.subList(0, 100));
+		assertThat(new CatalogGenerator(8).list(100)).isNotEqualTo(catalog.subList(0, 100));
+
+		var results = recipeBatchService.importAll(SampleData.generate(7, 300));
+		assertThat(results).allMatch(x -> x.getStatus() == BatchResultDto.Status.CREATED);
+
+		var vegetarian = catalog.stream().filter(RecipeDto::getVegetarian).count();
+		assertThat(recipeService.facets(RecipeFilter.of(null, null, null, null, true), 1).getCount())
+				.isEqualTo(vegetarian);
+	}
+
+	@Test
+	void whenFind_statementCountShouldNotGrowWithResults() {
+		insertRecipesForFindTests();
+
+		for (int i = 0; i < 20; i++) {
+			recipeService.save(RecipeDto.builder()
+					.title("Vegetable soup " + i)
+					.instructions("Boil the vegetables")
+					.vegetarian(true)
+					.serves(2)
+					.ingredients(Arrays.asList("Carrot", "Leek", "Potato"))
+					.build());
+		}
+
+		// Counted on the connections, so the JDBC ingredient projection counts as well
+		var profile = RequestProfile.current();
+
+		profile.start();
+		var few = recipeService.find("", "salmon", "", null, null);
+		profile.stop();
+		var fewStatements = profile.getStatementCount();
+
+		profile.start();
+		var many = recipeService.find("", "", "", null, true);
+		profile.stop();
+		var manyStatements = profile.getStatementCount();
+
+		assertThat(few.size()).isEqualTo(1);
+		assertThat(many.size()).isEqualTo(24);
+		assertThat(fewStatements).isLessThanOrEqualTo(3);
+		assertThat(manyStatements).isEqualTo(fewStatements);
+	}
+
 	private void insertRecipesForFindTests() {
 		for (var recipe : okRecipeList) {
 			recipeService.save(recipe);
@@ -248,4 +780,10 @@ class RecipeServiceTest {
 			assertThat(savedRecipe.isPresent()).isTrue();
 		}
 	}
+
+	private List<RecipeDto> streamAll(RecipeFilter filter) {
+		var recipes = new ArrayList<RecipeDto>();
+		recipeService.stream(filter, null, recipes::add);
+		return recipes;
+	}
 }
@@ -0,0 +1,51 @@
+package nl.abnamro.recipes.service;
+
+import nl.abnamro.recipes.dto.BatchResultDto;
+import nl.abnamro.recipes.repository.IngredientRepository;
+import nl.abnamro.recipes.repository.RecipeRepository;
+import nl.abnamro.recipes.utils.CatalogGenerator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Imports with a single pooled connection and a new id block for every id, so
+ * a write that holds its connection while a block is reserved times out.
+ */
+@SpringBootTest(properties = {
+		"spring.datasource.hikari.maximum-pool-size=1",
+		"spring.datasource.hikari.connection-timeout=1000",
+		"recipes.ids.block-size=1"})
+class SingleConnectionImportTest {
+
+	@Autowired
+	private RecipeRepository recipeRepository;
+
+	@Autowired
+	private IngredientRepository ingredientRepository;
+
+	@Autowired
+	private RecipeService recipeService;
+
+	@Autowired
+	private RecipeBatchService recipeBatchService;
+
+	@BeforeEach
+	public void cleanAndPrepareTests() {
+		recipeRepository.deleteAll();
+		ingredientRepository.deleteAll();
+		recipeService.rebuildIndex();
+	}
+
+	@Test
+	void whenPoolHasOneConnection_importShouldReserveIdsWithoutASecondOne() {
+		var results = recipeBatchService.importAll(new CatalogGenerator(7).recipes(30));
+
+		assertThat(results).extracting(BatchResultDto::getStatus).containsOnly(BatchResultDto.Status.CREATED);
+		assertThat(recipeRepository.count()).isEqualTo(30);
+		assertThat(ingredientRepository.count()).isPositive();
+	}
+}
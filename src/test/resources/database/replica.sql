@@ -0,0 +1,26 @@
+CREATE TABLE IF NOT EXISTS recipe (
+   recipe_id BIGINT PRIMARY KEY,
+   title VARCHAR(255) NOT NULL UNIQUE,
+   instructions TEXT NOT NULL,
+   serves INT(2) NOT NULL,
+   vegetarian INT(1) NOT NULL,
+   version INT NOT NULL DEFAULT 0
+);
+
+CREATE TABLE IF NOT EXISTS ingredient(
+	ingredient_id BIGINT PRIMARY KEY,
+	title VARCHAR(100) NOT NULL UNIQUE
+);
+
+CREATE TABLE IF NOT EXISTS recipe_ingredient(
+	recipe_id BIGINT NOT NULL REFERENCES recipe(recipe_id),
+	ingredient_id BIGINT NOT NULL REFERENCES ingredient(ingredient_id),
+
+	PRIMARY KEY (recipe_id, ingredient_id)
+);
+
+-- Next free id of every entity, handed out in blocks by the application
+CREATE TABLE IF NOT EXISTS id_block(
+	entity_name VARCHAR(64) NOT NULL PRIMARY KEY,
+	next_id BIGINT NOT NULL
+);